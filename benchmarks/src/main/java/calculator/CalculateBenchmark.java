@@ -0,0 +1,72 @@
+package calculator;
+
+import com.github.javaparser.symbolsolver.javaparsermodel.JavaParserFacade;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end {@link QCalculator#calculate()} on synthetic projects of increasing size, for scaling curves.
+ * Files per second is {@code files} divided by the score; run with {@code -prof gc} and divide
+ * {@code gc.alloc.rate.norm} by {@code files} for the bytes allocated per file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CalculateBenchmark {
+    @Param({"20"})
+    public int packages;
+
+    @Param({"100", "400", "1600"})
+    public int files;
+
+    @Param({"4"})
+    public int callsPerMethod;
+
+    @Param({"PRECISE", "IMPORTS"})
+    public QCalculator.Engine engine;
+
+    @Param({"1"})
+    public int numThreads;
+
+    private Path projectDir;
+    private Path outPath;
+    private CommandLineValues values;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        projectDir = SyntheticProject.generateTemp(packages, files, callsPerMethod);
+        outPath = Files.createTempDirectory("synthetic-output");
+        values = new CommandLineValues();
+        values.engine = engine;
+        values.numThreads = numThreads;
+    }
+
+    @TearDown(Level.Iteration)
+    public void clearFacade() {
+        synchronized (JavaParserFacade.class) {
+            JavaParserFacade.clearInstances();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(projectDir.toFile());
+        FileUtils.deleteDirectory(outPath.toFile());
+    }
+
+    @Benchmark
+    public ProjectResult calculate() throws IOException {
+        return new QCalculator(projectDir.toFile(), outPath,
+                sourceRoots -> ProjectPreprocessTask.createParser(sourceRoots, values, new ArrayList<>()),
+                values, new ProjectProgress(), new ProjectMetrics()).calculate();
+    }
+}
@@ -0,0 +1,63 @@
+package calculator;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Q computation at the end of {@link QCalculator#calculate()}: folding the package pair counts into
+ * {@link Modularity}, and merging per-file {@link EdgeCounts} into the project total.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModularityBenchmark {
+    @Param({"100", "1000"})
+    public int packages;
+
+    // ファイルあたりの (src, dst) の組の数
+    @Param({"8"})
+    public int pairsPerFile;
+
+    @Param({"1000"})
+    public int files;
+
+    private EdgeCounts[] fileEdges;
+    private EdgeCounts total;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(1);
+        fileEdges = new EdgeCounts[files];
+        total = new EdgeCounts();
+        for (int i = 0; i < files; i++) {
+            int src = random.nextInt(packages);
+            EdgeCounts edges = new EdgeCounts();
+            for (int j = 0; j < pairsPerFile; j++) {
+                edges.add(src, random.nextBoolean() ? src : random.nextInt(packages), 1 + random.nextInt(20));
+            }
+            fileEdges[i] = edges;
+            total.addAll(edges);
+        }
+    }
+
+    @Benchmark
+    public double modularity() {
+        Modularity modularity = new Modularity(packages);
+        total.forEach(modularity::add);
+        return modularity.value();
+    }
+
+    @Benchmark
+    public EdgeCounts accumulate() {
+        EdgeCounts edges = new EdgeCounts();
+        for (EdgeCounts file : fileEdges) {
+            edges.addAll(file);
+        }
+        return edges;
+    }
+}
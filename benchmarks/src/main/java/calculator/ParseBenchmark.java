@@ -0,0 +1,61 @@
+package calculator;
+
+import com.github.javaparser.JavaParser;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of every file of a synthetic project with {@link QCalculator#parse}, without a symbol solver.
+ * One operation parses all {@code files} files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ParseBenchmark {
+    @Param({"20"})
+    public int packages;
+
+    @Param({"200"})
+    public int files;
+
+    @Param({"4"})
+    public int callsPerMethod;
+
+    private Path projectDir;
+    private final List<byte[]> sources = new ArrayList<>();
+    private final SourceLoader loader = new SourceLoader(StandardCharsets.UTF_8);
+    private JavaParser parser;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        projectDir = SyntheticProject.generateTemp(packages, files, callsPerMethod);
+        for (Path path : new SourceDiscovery(projectDir, 1).listFiles()) {
+            sources.add(Files.readAllBytes(path));
+        }
+        parser = new JavaParser();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(projectDir.toFile());
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        for (byte[] source : sources) {
+            blackhole.consume(QCalculator.parse(parser, loader.wrap(source).provider()));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package calculator;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.expr.MethodCallExpr;
+import com.github.javaparser.symbolsolver.javaparsermodel.JavaParserFacade;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link QCalculator.EdgeCollectorVisitor} over the parsed files of a synthetic project, and symbol resolution
+ * on its own. One operation visits (or resolves the calls of) all {@code files} files.
+ * <p>
+ * {@code traverse} visits trees parsed without a symbol solver, so every resolution fails at once and the score is
+ * the cost of the walk itself. {@code visit} and {@code resolveMethodCalls} use a symbol solver that is created
+ * fresh for each iteration; its caches are cold in the first invocation of an iteration and warm afterwards,
+ * as they are for the later files of a real project.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ResolveBenchmark {
+    @Param({"20"})
+    public int packages;
+
+    @Param({"200"})
+    public int files;
+
+    @Param({"4"})
+    public int callsPerMethod;
+
+    private Path projectDir;
+    private PackageIndex packageIndex;
+    private List<byte[]> sources;
+    private final SourceLoader loader = new SourceLoader(StandardCharsets.UTF_8);
+    private List<CompilationUnit> plainUnits;
+    private List<CompilationUnit> resolvableUnits;
+    private final ProjectMetrics metrics = new ProjectMetrics();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        projectDir = SyntheticProject.generateTemp(packages, files, callsPerMethod);
+        SourceDiscovery.Sources discovered = new SourceDiscovery(projectDir, 1).discover();
+        List<String> packageNames = new ArrayList<>();
+        sources = new ArrayList<>();
+        for (Path path : discovered.getFiles()) {
+            packageNames.add(discovered.packageOf(path));
+            sources.add(Files.readAllBytes(path));
+        }
+        packageIndex = new PackageIndex(packageNames);
+        plainUnits = parseAll(new JavaParser());
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpSolver() throws IOException {
+        synchronized (JavaParserFacade.class) {
+            JavaParserFacade.clearInstances();
+        }
+        SourceDiscovery.Sources discovered = new SourceDiscovery(projectDir, 1).discover();
+        JavaParser parser = ProjectPreprocessTask.createParser(discovered.getSourceRoots(), new CommandLineValues(),
+                new ArrayList<>());
+        resolvableUnits = parseAll(parser);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(projectDir.toFile());
+    }
+
+    private List<CompilationUnit> parseAll(JavaParser parser) {
+        List<CompilationUnit> units = new ArrayList<>();
+        for (byte[] source : sources) {
+            units.add(QCalculator.parse(parser, loader.wrap(source).provider()));
+        }
+        return units;
+    }
+
+    @Benchmark
+    public void traverse(Blackhole blackhole) {
+        visitAll(plainUnits, blackhole);
+    }
+
+    @Benchmark
+    public void visit(Blackhole blackhole) {
+        visitAll(resolvableUnits, blackhole);
+    }
+
+    @Benchmark
+    public void resolveMethodCalls(Blackhole blackhole) {
+        for (CompilationUnit unit : resolvableUnits) {
+            for (MethodCallExpr call : unit.findAll(MethodCallExpr.class)) {
+                try {
+                    blackhole.consume(call.resolve());
+                } catch (Exception e) {
+                    blackhole.consume(e);
+                }
+            }
+        }
+    }
+
+    private void visitAll(List<CompilationUnit> units, Blackhole blackhole) {
+        for (CompilationUnit unit : units) {
+            var visitor = new QCalculator.EdgeCollectorVisitor(packageIndex, Long.MAX_VALUE, metrics);
+            visitor.visit(unit, null);
+            blackhole.consume(visitor.getEdges());
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package calculator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Generates a synthetic Maven-layout Java project for benchmarks and scaling runs.
+ * <p>
+ * The project has {@code packages} packages under {@code src/main/java/synthetic}, {@code files} classes spread
+ * evenly over them, and {@code callsPerMethod} method calls and field accesses in each method. Half of the
+ * references stay within the caller's package, the rest go to a random class anywhere in the project, and every
+ * fourth class extends an earlier class of its package, so every kind of edge the calculator resolves shows up.
+ * The same arguments and seed always give the same project.
+ */
+public class SyntheticProject {
+    private static final int METHODS_PER_CLASS = 4;
+
+    private final int packages;
+    private final int files;
+    private final int callsPerMethod;
+    private final long seed;
+
+    public SyntheticProject(int packages, int files, int callsPerMethod, long seed) {
+        this.packages = Math.max(packages, 1);
+        this.files = Math.max(files, this.packages);
+        this.callsPerMethod = callsPerMethod;
+        this.seed = seed;
+    }
+
+    // 使い方: SyntheticProject <output_dir> <packages> <files> <calls_per_method> [seed]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.err.println("usage: SyntheticProject <output_dir> <packages> <files> <calls_per_method> [seed]");
+            System.exit(1);
+        }
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+        SyntheticProject project = new SyntheticProject(
+                Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]), seed);
+        project.generate(Paths.get(args[0]));
+    }
+
+    public static Path generateTemp(int packages, int files, int callsPerMethod) throws IOException {
+        Path dir = Files.createTempDirectory("synthetic-project");
+        new SyntheticProject(packages, files, callsPerMethod, 1).generate(dir);
+        return dir;
+    }
+
+    public void generate(Path projectDir) throws IOException {
+        Random random = new Random(seed);
+        Path sourceRoot = projectDir.resolve("src/main/java");
+        for (int i = 0; i < files; i++) {
+            int packageId = packageOf(i);
+            Path dir = sourceRoot.resolve("synthetic").resolve("p" + packageId);
+            Files.createDirectories(dir);
+            Files.write(dir.resolve("C" + i + ".java"), source(i, random).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // クラス i が属するパッケージ (均等に割り振る)
+    private int packageOf(int classId) {
+        return classId % packages;
+    }
+
+    private String qualifiedName(int classId) {
+        return "synthetic.p" + packageOf(classId) + ".C" + classId;
+    }
+
+    // 同じパッケージのクラスを半分、残りはプロジェクト全体から選ぶ
+    private int pickTarget(int classId, Random random) {
+        if (random.nextBoolean()) {
+            int sameSize = (files - packageOf(classId) + packages - 1) / packages;
+            return packageOf(classId) + random.nextInt(sameSize) * packages;
+        }
+        return random.nextInt(files);
+    }
+
+    private String source(int classId, Random random) {
+        StringBuilder body = new StringBuilder();
+        Set<String> imports = new TreeSet<>();
+        String superClass = "";
+        if (classId % 4 == 3 && classId >= packages) {
+            int parent = classId - packages;
+            superClass = " extends C" + parent;
+        }
+        body.append("    public static int shared = ").append(classId).append(";\n");
+        body.append("    public int value;\n\n");
+        for (int m = 0; m < METHODS_PER_CLASS; m++) {
+            body.append("    public int m").append(m).append("(int x) {\n");
+            body.append("        int r = x + value;\n");
+            for (int c = 0; c < callsPerMethod; c++) {
+                int target = pickTarget(classId, random);
+                String simpleName = "C" + target;
+                if (packageOf(target) != packageOf(classId)) {
+                    imports.add(qualifiedName(target));
+                }
+                if (c % 3 == 2) {
+                    body.append("        r += ").append(simpleName).append(".shared;\n");
+                } else {
+                    body.append("        r += new ").append(simpleName).append("().m")
+                            .append(random.nextInt(METHODS_PER_CLASS)).append("(r);\n");
+                }
+            }
+            body.append("        return r;\n");
+            body.append("    }\n\n");
+        }
+
+        StringBuilder source = new StringBuilder();
+        source.append("package synthetic.p").append(packageOf(classId)).append(";\n\n");
+        for (String name : imports) {
+            source.append("import ").append(name).append(";\n");
+        }
+        source.append("\npublic class C").append(classId).append(superClass).append(" {\n");
+        source.append(body);
+        source.append("}\n");
+        return source.toString();
+    }
+}
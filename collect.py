@@ -1,16 +1,17 @@
-import os
 import json
 
 target_dir = 'java-large+'
 
+# データセットの実行結果 (results.jsonl) から {data_type: {project: Q}} を作る
 data = dict()
-for dataset in os.listdir(target_dir):
-    data[dataset] = dict()
-    for project_txt in os.listdir(target_dir + '/' + dataset):
-        with open(target_dir + '/' + dataset + '/' + project_txt, mode='r') as f:
-            q_value = f.readline().rstrip()
-        project = project_txt.replace('.txt', '')
-        data[dataset][project] = float(q_value)
+with open(target_dir + '/results.jsonl', mode='r') as f:
+    for line in f:
+        try:
+            record = json.loads(line)
+        except ValueError:
+            # 書き込み途中で止まった最後の行
+            break
+        data.setdefault(record['data_type'], dict())[record['project']] = float(record['q_value'])
 
 with open('q_values.json', mode='w') as f:
     json.dump(data, f, indent=2);
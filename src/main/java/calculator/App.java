@@ -14,16 +14,30 @@ public class App {
         }
 
         if (s_CommandLineValues.project != null) {
-            ProjectPreprocessTask task = new ProjectPreprocessTask(s_CommandLineValues.project.toFile(), s_CommandLineValues.outputDir);
-            task.run();
-        } else if (s_CommandLineValues.dataset != null) {
-            DatasetPreprocessor preprocessor = new DatasetPreprocessor(
-                    s_CommandLineValues.dataset,
+            ProjectPreprocessTask task = new ProjectPreprocessTask(
+                    s_CommandLineValues.project.toFile(),
                     s_CommandLineValues.outputDir,
-                    s_CommandLineValues.numWorkers,
-                    s_CommandLineValues.logDir
+                    s_CommandLineValues
             );
+            if (s_CommandLineValues.progressEvents) {
+                String projectName = s_CommandLineValues.project.toFile().getName();
+                task.setProgressListener(progress -> System.out.println(WorkerProtocol.progress(projectName, progress)));
+            }
+            if (s_CommandLineValues.resultEvents) {
+                task.setResultListener(record -> System.out.println(WorkerProtocol.result(record)));
+            }
+            task.run();
+        } else if (s_CommandLineValues.dataset != null) {
+            DatasetPreprocessor preprocessor = new DatasetPreprocessor(s_CommandLineValues);
             preprocessor.preprocess();
+        } else if (s_CommandLineValues.history != null) {
+            new HistoryAnalyzer(s_CommandLineValues).run();
+        } else if (s_CommandLineValues.merge != null) {
+            new ShardMerger(s_CommandLineValues).run();
+        } else if (s_CommandLineValues.graphs != null) {
+            new GraphQuery(s_CommandLineValues).run();
+        } else if (s_CommandLineValues.worker) {
+            new ProjectWorker(s_CommandLineValues).run();
         }
     }
 
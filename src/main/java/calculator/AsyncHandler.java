@@ -0,0 +1,166 @@
+package calculator;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+/**
+ * Log handler that hands records to a background thread through a bounded ring buffer and writes them to a file
+ * in batches.
+ * <p>
+ * {@link #publish(LogRecord)} only stores the record, so threads that log (such as the pumps reading child process
+ * output) never wait for formatting or disk writes unless the buffer is full, in which case they wait for space
+ * rather than drop lines. The writer thread takes every record that is waiting, formats them with this handler's
+ * formatter and writes them with a single write and flush. {@link #flush()} waits until everything published
+ * before it has been written, and {@link #close()} writes the rest and stops the thread.
+ */
+public class AsyncHandler extends Handler {
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    private final LogRecord[] ring;
+    private final Writer writer;
+    private final Thread thread;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition written = lock.newCondition();
+    // 取り出した数と受け取った数 (どちらも増える一方で、差がバッファ内の件数)
+    private long head;
+    private long tail;
+    private long writtenCount;
+    private boolean closed;
+
+    public AsyncHandler(Path file) throws IOException {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    public AsyncHandler(Path file, int capacity) throws IOException {
+        this.ring = new LogRecord[capacity];
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        this.thread = new Thread(this::writeLoop, "async-log-" + file.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (!isLoggable(record)) {
+            return;
+        }
+        // 呼び出し元のクラスとメソッドは呼び出したスレッドのスタックからしか推定できないので、ここで確定させる
+        record.getSourceMethodName();
+        lock.lock();
+        try {
+            while (tail - head == ring.length && !closed) {
+                notFull.awaitUninterruptibly();
+            }
+            if (closed) {
+                return;
+            }
+            ring[(int) (tail % ring.length)] = record;
+            tail++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void flush() {
+        lock.lock();
+        try {
+            long target = tail;
+            while (writtenCount < target && thread.isAlive()) {
+                try {
+                    written.await(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            reportError(null, e, ErrorManager.CLOSE_FAILURE);
+        }
+    }
+
+    private void writeLoop() {
+        LogRecord[] batch = new LogRecord[ring.length];
+        StringBuilder text = new StringBuilder(8192);
+        while (true) {
+            int count = 0;
+            lock.lock();
+            try {
+                while (head == tail && !closed) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (head == tail) {
+                    return;
+                }
+                // 溜まっている分をまとめて取り出す
+                while (head < tail) {
+                    int slot = (int) (head % ring.length);
+                    batch[count++] = ring[slot];
+                    ring[slot] = null;
+                    head++;
+                }
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            text.setLength(0);
+            for (int i = 0; i < count; i++) {
+                try {
+                    text.append(getFormatter().format(batch[i]));
+                } catch (RuntimeException e) {
+                    reportError(null, e, ErrorManager.FORMAT_FAILURE);
+                }
+                batch[i] = null;
+            }
+            try {
+                writer.append(text);
+                writer.flush();
+            } catch (IOException e) {
+                reportError(null, e, ErrorManager.WRITE_FAILURE);
+            }
+
+            lock.lock();
+            try {
+                writtenCount += count;
+                written.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
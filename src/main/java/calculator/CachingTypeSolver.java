@@ -0,0 +1,64 @@
+package calculator;
+
+import com.github.javaparser.resolution.declarations.ResolvedReferenceTypeDeclaration;
+import com.github.javaparser.symbolsolver.model.resolution.SymbolReference;
+import com.github.javaparser.symbolsolver.model.resolution.TypeSolver;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memoizes type lookups of another type solver in a size-bounded LRU map.
+ * Unsolved lookups are cached as well, since failed lookups are the expensive ones.
+ * The cached declarations carry their package, so callers never re-solve a type to get it.
+ */
+public class CachingTypeSolver implements TypeSolver {
+    private final TypeSolver delegate;
+    private final Map<String, SymbolReference<ResolvedReferenceTypeDeclaration>> cache;
+    private TypeSolver parent;
+    private long hits;
+    private long misses;
+
+    public CachingTypeSolver(TypeSolver delegate, int maxSize) {
+        this.delegate = delegate;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SymbolReference<ResolvedReferenceTypeDeclaration>> eldest) {
+                return size() > maxSize;
+            }
+        };
+        // 委譲先からの再帰的な解決もこのキャッシュを通るように、ルートをこのソルバにする
+        delegate.setParent(this);
+    }
+
+    @Override
+    public TypeSolver getParent() {
+        return parent;
+    }
+
+    @Override
+    public void setParent(TypeSolver parent) {
+        this.parent = parent;
+    }
+
+    @Override
+    public synchronized SymbolReference<ResolvedReferenceTypeDeclaration> tryToSolveType(String name) {
+        SymbolReference<ResolvedReferenceTypeDeclaration> ref = cache.get(name);
+        if (ref != null) {
+            hits++;
+            return ref;
+        }
+        misses++;
+        ref = delegate.tryToSolveType(name);
+        cache.put(name, ref);
+        return ref;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
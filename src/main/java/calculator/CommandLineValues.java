@@ -5,19 +5,52 @@ import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 
 import java.io.File;
+import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
 
 /**
  * This class handles the programs arguments.
  */
 public class CommandLineValues {
-    @Option(name = "--dataset", required = false, forbids = {"--project"})
+    @Option(name = "--dataset", required = false, forbids = {"--project", "--worker", "--history", "--merge", "--graphs"})
     public Path dataset;
 
-    @Option(name = "--project", required = false, forbids = {"--dataset"})
+    @Option(name = "--project", required = false, forbids = {"--dataset", "--worker", "--history", "--merge", "--graphs"})
     public Path project;
 
+    @Option(name = "--worker", required = false, forbids = {"--dataset", "--project", "--history", "--merge", "--graphs"})
+    public boolean worker = false;
+
+    // ローカルの git リポジトリの履歴をたどって Q 値の時系列を出す
+    @Option(name = "--history", required = false, forbids = {"--dataset", "--project", "--worker", "--merge", "--graphs"})
+    public Path history;
+
+    // git log に渡すコミットの範囲 (例: v1.0..HEAD)。first-parent で古い順にたどる
+    @Option(name = "--range", required = false)
+    public String range = "HEAD";
+
+    // シャードごとの出力ディレクトリを並べたディレクトリを、--output_dir に統合する
+    @Option(name = "--merge", required = false, forbids = {"--dataset", "--project", "--worker", "--history", "--graphs"})
+    public Path merge;
+
+    // --save_graph で保存したグラフファイルのディレクトリから、ソースを読まずに Q 値を計算し直す
+    @Option(name = "--graphs", required = false, forbids = {"--dataset", "--project", "--worker", "--history", "--merge"})
+    public Path graphs;
+
+    // 各プロジェクトのパッケージ依存グラフを <出力先>/<プロジェクト名>.graph に保存する
+    @Option(name = "--save_graph", required = false)
+    public boolean saveGraph = false;
+
+    // "i/n" (i は 0 から n-1)。データセットのうち i 番目のシャードだけを処理する
+    @Option(name = "--shard", required = false)
+    public String shard = "";
+
     @Option(name = "--output_dir", required = false)
     public Path outputDir = new File("./output").toPath();
 
@@ -27,11 +60,83 @@ public class CommandLineValues {
     @Option(name = "--num_workers", required = false)
     public int numWorkers = 1;
 
+    @Option(name = "--in_process", required = false, forbids = {"--worker_pool"})
+    public boolean inProcess = false;
+
+    @Option(name = "--worker_pool", required = false, forbids = {"--in_process"})
+    public boolean workerPool = false;
+
+    @Option(name = "--worker_max_projects", required = false)
+    public int workerMaxProjects = 100;
+
+    @Option(name = "--worker_max_heap_ratio", required = false)
+    public double workerMaxHeapRatio = 0.75;
+
+    @Option(name = "--memory_budget", required = false)
+    public String memoryBudget = "0";
+
+    @Option(name = "--min_heap", required = false)
+    public String minHeap = "2g";
+
+    @Option(name = "--max_heap", required = false)
+    public String maxHeap = "16g";
+
+    @Option(name = "--heap_per_source_byte", required = false)
+    public long heapPerSourceByte = 128;
+
+    @Option(name = "--progress_interval", required = false)
+    public long progressInterval = 30;
+
+    // 親プロセスが子プロセスに進捗をプロトコル行で報告させるときに付ける
+    @Option(name = "--progress_events", required = false)
+    public boolean progressEvents = false;
+
+    // 親プロセスが子プロセスに結果をファイルではなくプロトコル行で返させるときに付ける
+    @Option(name = "--result_events", required = false)
+    public boolean resultEvents = false;
+
+    @Option(name = "--num_threads", required = false)
+    public int numThreads = 1;
+
+    // 秒 (0 なら無制限)
+    @Option(name = "--project_timeout", required = false)
+    public long projectTimeout = 0;
+
+    @Option(name = "--file_timeout", required = false)
+    public long fileTimeout = 0;
+
+    @Option(name = "--edge_cache", required = false)
+    public boolean edgeCache = false;
+
+    @Option(name = "--type_cache_size", required = false)
+    public int typeCacheSize = 50000;
+
+    // JDK と --type_jars の jar の型名の索引ファイル。なければ作り、データセットの全プロジェクトで共有する
+    @Option(name = "--type_index", required = false)
+    public Path typeIndex;
+
+    // 型索引に入れる jar を探すディレクトリ (パス区切り文字で複数指定できる)
+    @Option(name = "--type_jars", required = false, depends = {"--type_index"})
+    public String typeJars = "";
+
+    // ソースファイルの文字コード (プラットフォームの既定値には依存しない)
+    @Option(name = "--source_charset", required = false)
+    public String sourceCharset = "UTF-8";
+
+    // imports は名前解決をしない近似、compare は両方で計算して差を記録する
+    @Option(name = "--engine", required = false)
+    public QCalculator.Engine engine = QCalculator.Engine.PRECISE;
+
+    // "all" なら全ての深さ、"1,2" なら指定した深さで切り詰めたパッケージでも Q 値を計算する
+    @Option(name = "--depths", required = false)
+    public String depths = "";
+
 
     public CommandLineValues(String... args) throws CmdLineException {
         CmdLineParser parser = new CmdLineParser(this);
         try {
             parser.parseArgument(args);
+            validate(parser);
         } catch (CmdLineException e) {
             System.err.println(e.getMessage());
             parser.printUsage(System.err);
@@ -42,4 +147,140 @@ public class CommandLineValues {
     public CommandLineValues() {
 
     }
+
+    // 解析を始めてから失敗しないように、値の形式はここで確かめる
+    private void validate(CmdLineParser parser) throws CmdLineException {
+        try {
+            depths(1);
+        } catch (IllegalArgumentException e) {
+            throw new CmdLineException(parser, "invalid --depths: " + depths, e);
+        }
+        if (!shard.isBlank()) {
+            try {
+                ShardPlan.parse(shard);
+            } catch (IllegalArgumentException e) {
+                throw new CmdLineException(parser, "invalid --shard: " + shard + " (expected i/n with 0 <= i < n)", e);
+            }
+        }
+    }
+
+    public long memoryBudgetMb() {
+        return toMegabytes(memoryBudget);
+    }
+
+    public long minHeapMb() {
+        return toMegabytes(minHeap);
+    }
+
+    public long maxHeapMb() {
+        return toMegabytes(maxHeap);
+    }
+
+    // 子プロセス自身のプロジェクト期限に加えて待つ猶予 (0 なら無制限)
+    public long hardProjectTimeoutSeconds() {
+        return projectTimeout > 0 ? projectTimeout + Math.max(30, projectTimeout / 10) : 0;
+    }
+
+    // maxDepth はプロジェクトで一番深いパッケージの階層数
+    public SortedSet<Integer> depths(int maxDepth) {
+        SortedSet<Integer> result = new TreeSet<>();
+        if (depths.trim().equalsIgnoreCase("all")) {
+            for (int depth = 1; depth <= maxDepth; depth++) {
+                result.add(depth);
+            }
+            return result;
+        }
+        for (String depth : depths.split(",")) {
+            if (!depth.isBlank()) {
+                int value = Integer.parseInt(depth.trim());
+                if (value < 1) {
+                    throw new IllegalArgumentException("invalid depth: " + depth);
+                }
+                result.add(value);
+            }
+        }
+        return result;
+    }
+
+    public Charset sourceCharset() {
+        return Charset.forName(sourceCharset);
+    }
+
+    public List<Path> typeJarDirs() {
+        List<Path> dirs = new ArrayList<>();
+        for (String dir : typeJars.split(File.pathSeparator)) {
+            if (!dir.isBlank()) {
+                dirs.add(Paths.get(dir.trim()));
+            }
+        }
+        return dirs;
+    }
+
+    // "16g", "512m" のような JVM 形式のサイズを MB にする (単位なしは MB)
+    static long toMegabytes(String size) {
+        String s = size.trim().toLowerCase();
+        char unit = s.charAt(s.length() - 1);
+        if (Character.isDigit(unit)) {
+            return Long.parseLong(s);
+        }
+        long value = Long.parseLong(s.substring(0, s.length() - 1));
+        switch (unit) {
+            case 't':
+                return value << 20;
+            case 'g':
+                return value << 10;
+            case 'm':
+                return value;
+            case 'k':
+                return value >> 10;
+            default:
+                throw new IllegalArgumentException("invalid size: " + size);
+        }
+    }
+
+    // 子プロセスの --project 実行にそのまま引き継ぐ引数
+    public List<String> projectArgs() {
+        List<String> args = new ArrayList<>();
+        args.add("--num_threads");
+        args.add(Integer.toString(numThreads));
+        if (edgeCache) {
+            args.add("--edge_cache");
+        }
+        if (saveGraph) {
+            args.add("--save_graph");
+        }
+        args.add("--project_timeout");
+        args.add(Long.toString(projectTimeout));
+        args.add("--file_timeout");
+        args.add(Long.toString(fileTimeout));
+        args.add("--progress_interval");
+        args.add(Long.toString(progressInterval));
+        args.add("--progress_events");
+        args.add("--result_events");
+        args.add("--type_cache_size");
+        args.add(Integer.toString(typeCacheSize));
+        if (typeIndex != null) {
+            // 子プロセスは作業ディレクトリが違っても同じ索引を開く
+            args.add("--type_index");
+            args.add(typeIndex.toAbsolutePath().toString());
+            if (!typeJars.isBlank()) {
+                args.add("--type_jars");
+                args.add(typeJarDirs().stream().map(dir -> dir.toAbsolutePath().toString())
+                        .collect(Collectors.joining(File.pathSeparator)));
+            }
+        }
+        args.add("--source_charset");
+        args.add(sourceCharset);
+        args.add("--engine");
+        args.add(engine.name());
+        if (!depths.isBlank()) {
+            args.add("--depths");
+            args.add(depths);
+        }
+        args.add("--worker_max_projects");
+        args.add(Integer.toString(workerMaxProjects));
+        args.add("--worker_max_heap_ratio");
+        args.add(Double.toString(workerMaxHeapRatio));
+        return args;
+    }
 }
\ No newline at end of file
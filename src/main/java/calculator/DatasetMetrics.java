@@ -0,0 +1,166 @@
+package calculator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Aggregates the per-project metrics records of a dataset run into one summary:
+ * percentiles of each phase's wall time, dataset totals, the slowest projects, and, when projects were
+ * run with {@code --engine compare}, how far each additional Q value drifts from the primary one.
+ */
+public class DatasetMetrics {
+    private static final int SLOWEST_PROJECTS = 20;
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final List<JsonNode> projects = new ArrayList<>();
+    private final List<String> dataTypes = new ArrayList<>();
+    private int missing;
+
+    public void add(String dataType, JsonNode project) {
+        projects.add(project);
+        dataTypes.add(dataType);
+    }
+
+    // 子プロセスが異常終了した場合など、レコードのないプロジェクト
+    public void missing() {
+        missing++;
+    }
+
+    public ObjectNode summarize() {
+        ObjectNode root = mapper.createObjectNode();
+        root.put("projects", projects.size());
+        root.put("missing_metrics", missing);
+
+        Map<String, Long> statuses = new TreeMap<>();
+        for (JsonNode project : projects) {
+            statuses.merge(project.path("status").asText(), 1L, Long::sum);
+        }
+        ObjectNode statusNode = root.putObject("status");
+        statuses.forEach(statusNode::put);
+
+        ObjectNode totals = root.putObject("totals");
+        for (String field : Arrays.asList("files", "bytes", "skipped_files", "parse_failures", "edge_cache_hits",
+                "external_skips")) {
+            totals.put(field, projects.stream().mapToLong(p -> p.path(field).asLong()).sum());
+        }
+        ObjectNode resolve = totals.putObject("resolve");
+        for (ProjectMetrics.ResolveKind kind : ProjectMetrics.ResolveKind.values()) {
+            String name = ProjectMetrics.name(kind);
+            ObjectNode counts = resolve.putObject(name);
+            counts.put("success", projects.stream().mapToLong(p -> p.path("resolve").path(name).path("success").asLong()).sum());
+            counts.put("failure", projects.stream().mapToLong(p -> p.path("resolve").path(name).path("failure").asLong()).sum());
+        }
+
+        for (String timeKind : Arrays.asList("wall_seconds", "cpu_seconds")) {
+            ObjectNode phases = root.putObject(timeKind);
+            for (ProjectMetrics.Phase phase : ProjectMetrics.Phase.values()) {
+                String name = ProjectMetrics.name(phase);
+                double[] values = projects.stream().mapToDouble(p -> p.path(timeKind).path(name).asDouble()).sorted().toArray();
+                ObjectNode stats = phases.putObject(name);
+                stats.put("sum", Arrays.stream(values).sum());
+                stats.put("p50", percentile(values, 0.50));
+                stats.put("p90", percentile(values, 0.90));
+                stats.put("p99", percentile(values, 0.99));
+                stats.put("max", values.length == 0 ? 0 : values[values.length - 1]);
+            }
+        }
+
+        ObjectNode drift = root.putObject("engine_drift");
+        for (Map.Entry<String, double[]> entry : engineDrift().entrySet()) {
+            double[] values = entry.getValue();
+            ObjectNode stats = drift.putObject(entry.getKey());
+            stats.put("projects", values.length);
+            stats.put("mean_abs", values.length == 0 ? 0 : Arrays.stream(values).sum() / values.length);
+            stats.put("p50", percentile(values, 0.50));
+            stats.put("p90", percentile(values, 0.90));
+            stats.put("max", values.length == 0 ? 0 : values[values.length - 1]);
+        }
+
+        String total = ProjectMetrics.name(ProjectMetrics.Phase.TOTAL);
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < projects.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparingDouble((Integer i) -> projects.get(i).path("wall_seconds").path(total).asDouble()).reversed());
+        ArrayNode slowest = root.putArray("slowest_projects");
+        for (int i : order.subList(0, Math.min(SLOWEST_PROJECTS, order.size()))) {
+            JsonNode project = projects.get(i);
+            ObjectNode node = slowest.addObject();
+            node.put("data_type", dataTypes.get(i));
+            node.put("project", project.path("project").asText());
+            node.put("status", project.path("status").asText());
+            node.put("files", project.path("files").asLong());
+            node.put("wall_seconds", project.path("wall_seconds").path(total).asDouble());
+            node.put("dominant_phase", dominantPhase(project));
+        }
+        return root;
+    }
+
+    public void write(Path file) throws IOException {
+        mapper.writerWithDefaultPrettyPrinter().writeValue(file.toFile(), summarize());
+    }
+
+    // エンジンごとの |Q - Q_precise| を昇順で返す。どちらかが NaN のプロジェクトと、
+    // 途中で打ち切られて一部のファイルしか数えていないプロジェクトは除く
+    private Map<String, double[]> engineDrift() {
+        Map<String, List<Double>> drifts = new TreeMap<>();
+        for (JsonNode project : projects) {
+            if (!ProjectResult.COMPLETE.equals(project.path("status").asText())) {
+                continue;
+            }
+            double q = project.path("q_value").asDouble(Double.NaN);
+            Iterator<Map.Entry<String, JsonNode>> fields = project.path("q_values").fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                if (!isEngine(field.getKey())) {
+                    // depth.N などはエンジンの違いではない
+                    continue;
+                }
+                double other = field.getValue().asDouble(Double.NaN);
+                List<Double> values = drifts.computeIfAbsent(field.getKey(), k -> new ArrayList<>());
+                if (!Double.isNaN(q) && !Double.isNaN(other)) {
+                    values.add(Math.abs(q - other));
+                }
+            }
+        }
+        Map<String, double[]> sorted = new TreeMap<>();
+        drifts.forEach((engine, values) -> sorted.put(engine, values.stream().mapToDouble(Double::doubleValue).sorted().toArray()));
+        return sorted;
+    }
+
+    private static boolean isEngine(String name) {
+        return Arrays.stream(QCalculator.Engine.values()).anyMatch(engine -> ProjectMetrics.name(engine).equals(name));
+    }
+
+    // TOTAL を除いて一番時間のかかったフェーズ
+    private static String dominantPhase(JsonNode project) {
+        String dominant = null;
+        double max = -1;
+        for (ProjectMetrics.Phase phase : ProjectMetrics.Phase.values()) {
+            if (phase == ProjectMetrics.Phase.TOTAL) {
+                continue;
+            }
+            double seconds = project.path("wall_seconds").path(ProjectMetrics.name(phase)).asDouble();
+            if (seconds > max) {
+                max = seconds;
+                dominant = ProjectMetrics.name(phase);
+            }
+        }
+        return dominant;
+    }
+
+    // 最近傍順位法
+    private static double percentile(double[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.max(rank - 1, 0)];
+    }
+}
@@ -1,5 +1,7 @@
 package calculator;
 
+import com.fasterxml.jackson.databind.JsonNode;
+
 import java.io.*;
 import java.net.URISyntaxException;
 import java.nio.file.Path;
@@ -7,8 +9,9 @@ import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
-import java.util.logging.FileHandler;
+import java.util.stream.Collectors;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -18,22 +21,29 @@ public class DatasetPreprocessor {
     private Path targetDir;
     private Path outputDir;
     private int numWorkers;
+    private CommandLineValues values;
+    private ProgressTracker tracker;
+    private ResultStore store;
 
     private Logger logger = Logger.getLogger(DatasetPreprocessor.class.getName());
+    private Handler logHandler;
 
-    public DatasetPreprocessor(Path targetDir, Path outputDir, int numWorkers, Path logDir) {
-        this.targetDir = targetDir;
-        this.outputDir = outputDir;
-        this.numWorkers = numWorkers;
+    public DatasetPreprocessor(CommandLineValues values) {
+        this.targetDir = values.dataset;
+        this.outputDir = values.outputDir;
+        this.numWorkers = values.numWorkers;
+        this.values = values;
+        Path logDir = values.logDir;
 
         logger.setLevel(Level.INFO);
         try {
             if (!logDir.toFile().exists()) {
                 logDir.toFile().mkdirs();
             }
-            Handler handler = new FileHandler(logDir.resolve("preprocess.log").toString());
-            handler.setFormatter(new LogFormatter());
-            logger.addHandler(handler);
+            // 子プロセスの出力を読むスレッドが書き込みを待たないように、別スレッドでまとめて書く
+            logHandler = new AsyncHandler(logDir.resolve("preprocess.log"));
+            logHandler.setFormatter(new LogFormatter());
+            logger.addHandler(logHandler);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
@@ -41,18 +51,63 @@ public class DatasetPreprocessor {
 
     public void preprocess() {
         ExecutorService executor = Executors.newFixedThreadPool(numWorkers);
+        WorkerPool workerPool = null;
+        MemoryBudget budget = new MemoryBudget(values.memoryBudgetMb());
         try {
+            List<ProjectJob> jobs = listJobs();
+            if (!values.shard.isBlank()) {
+                jobs = selectShard(jobs);
+            }
+            // 前回の実行で結果が残っているプロジェクトは飛ばす
+            store = ResultStore.open(outputDir.resolve(ResultStore.FILE_NAME));
+            List<ProjectJob> allJobs = jobs;
+            jobs = jobs.stream().filter(job -> !store.contains(job.dataType, job.getName())).collect(Collectors.toList());
+            if (jobs.size() < allJobs.size()) {
+                logger.info("resuming: " + (allJobs.size() - jobs.size()) + " projects already have results");
+            }
+            if (values.typeIndex != null) {
+                // 子プロセスが同時に作り始めないように、先にここで作っておく
+                TypeIndex typeIndex = TypeIndex.open(values.typeIndex, values.typeJarDirs());
+                logger.info("type index " + values.typeIndex + ": " + typeIndex.size() + " types");
+            }
+            logger.info("scheduled " + jobs.size() + " projects"
+                    + (jobs.isEmpty() ? "" : ", largest: " + jobs.get(0).getName()
+                    + " (" + jobs.get(0).fileCount + " files, " + (jobs.get(0).sourceBytes >> 10) + "KB)"));
+            tracker = new ProgressTracker(jobs, values.progressInterval, logger);
+
+            if (values.workerPool) {
+                List<String> command = javaCommand(values.maxHeapMb());
+                command.add("--worker");
+                command.addAll(values.projectArgs());
+                workerPool = new WorkerPool(command, numWorkers, values.hardProjectTimeoutSeconds(), tracker, store, logger);
+            }
+
             List<Future<?>> futures = new ArrayList<>();
-            for (Map.Entry<String, List<File>> en : listProjects().entrySet()) {
-                String dataType = en.getKey();
-                for (File project : en.getValue()) {
-                    Path outPath = outputDir.resolve(dataType);
-                    if (!outPath.toFile().exists()) {
-                        outPath.toFile().mkdirs();
-                    }
-                    Future<?> future = executor.submit(() -> preprocess(project, outPath));
-                    futures.add(future);
+            for (ProjectJob job : jobs) {
+                Path outPath = outputDir.resolve(job.dataType);
+                if (!outPath.toFile().exists()) {
+                    outPath.toFile().mkdirs();
                 }
+                // ワーカープールの JVM は常に最大ヒープで動いているので、その分を予約する
+                long heapMb = workerPool != null ? values.maxHeapMb() : heapMegabytes(job);
+                WorkerPool pool = workerPool;
+                Future<?> future = executor.submit(() -> {
+                    long reserved = budget.acquire(heapMb);
+                    try {
+                        if (pool != null) {
+                            pool.preprocess(job, outPath);
+                        } else if (values.inProcess) {
+                            preprocessInProcess(job, outPath);
+                        } else {
+                            preprocess(job, outPath, heapMb);
+                        }
+                    } finally {
+                        budget.release(reserved);
+                        tracker.complete(job);
+                    }
+                    return null;
+                });
+                futures.add(future);
             }
             for (Future<?> future : futures) {
                 try {
@@ -61,10 +116,81 @@ public class DatasetPreprocessor {
                     logger.log(Level.SEVERE, e.getMessage(), e);
                 }
             }
+            writeDatasetMetrics(allJobs);
+            logger.info("complete preprocessing all projects");
+        } catch (URISyntaxException e) {
+            logger.log(Level.SEVERE, "failed to locate the jar file", e);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "failed to open the output directory or the type index", e);
         } finally {
             executor.shutdown();
+            if (workerPool != null) {
+                workerPool.close();
+            }
+            if (tracker != null) {
+                tracker.close();
+            }
+            if (store != null) {
+                try {
+                    store.close();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "failed to close the result store", e);
+                }
+            }
+            // 途中で例外が出ても、溜まったログを書き出してファイルを閉じる
+            if (logHandler != null) {
+                logger.removeHandler(logHandler);
+                logHandler.close();
+            }
         }
-        logger.info("complete preprocessing all projects");
+    }
+
+    private void writeDatasetMetrics(List<ProjectJob> jobs) {
+        Map<String, JsonNode> records = new HashMap<>();
+        for (JsonNode record : store.records()) {
+            records.put(ResultStore.key(record), record);
+        }
+        DatasetMetrics metrics = new DatasetMetrics();
+        for (ProjectJob job : jobs) {
+            JsonNode record = records.get(ResultStore.key(job.dataType, job.getName()));
+            if (record != null) {
+                metrics.add(job.dataType, record);
+            } else {
+                metrics.missing();
+            }
+        }
+        Path metricsFile = outputDir.resolve("dataset_metrics.json");
+        try {
+            metrics.write(metricsFile);
+            logger.info("wrote dataset metrics to " + metricsFile);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "failed to write dataset metrics", e);
+        }
+    }
+
+    // 全ノードが同じ割り当てを計算できるよう、並べ替え済みの全プロジェクトから選ぶ
+    private List<ProjectJob> selectShard(List<ProjectJob> jobs) throws IOException {
+        ShardPlan plan = ShardPlan.parse(values.shard);
+        if (!outputDir.toFile().exists()) {
+            outputDir.toFile().mkdirs();
+        }
+        plan.writeManifest(outputDir.resolve(ShardPlan.MANIFEST), jobs);
+        List<ProjectJob> selected = plan.select(jobs);
+        logger.info("shard " + plan.getIndex() + "/" + plan.getCount() + ": " + selected.size()
+                + " of " + jobs.size() + " projects, "
+                + (selected.stream().mapToLong(job -> job.sourceBytes).sum() >> 10) + "KB");
+        return selected;
+    }
+
+    // 大きいプロジェクトが最後に残らないよう、ソースの大きい順に並べる
+    private List<ProjectJob> listJobs() {
+        List<ProjectJob> jobs = listProjects().entrySet().parallelStream()
+                .flatMap(en -> en.getValue().stream().map(project -> ProjectJob.estimate(en.getKey(), project)))
+                .collect(Collectors.toList());
+        jobs.sort(Comparator.comparingLong((ProjectJob job) -> job.sourceBytes).reversed()
+                .thenComparing(job -> job.dataType)
+                .thenComparing(ProjectJob::getName));
+        return jobs;
     }
 
     // returns {dataType, projectRoot[]}
@@ -86,28 +212,112 @@ public class DatasetPreprocessor {
         return result;
     }
 
-    private void preprocess(File projectDir, Path outPath) {
+    private long heapMegabytes(ProjectJob job) {
+        long estimated = values.minHeapMb() + (job.sourceBytes * values.heapPerSourceByte >> 20);
+        return Math.min(estimated, values.maxHeapMb());
+    }
+
+    private List<String> javaCommand(long heapMb) throws URISyntaxException {
+        String jar = new File(getClass().getProtectionDomain().getCodeSource().getLocation()
+                .toURI()).getPath();
+        return new ArrayList<>(Arrays.asList(
+                "java",
+                "-Xms" + Math.min(values.minHeapMb(), heapMb) + "m",
+                "-Xmx" + heapMb + "m",
+                "-cp",
+                jar,
+                "calculator.App"
+        ));
+    }
+
+    private void preprocess(ProjectJob job, Path outPath, long heapMb) {
+        File projectDir = job.projectDir;
         try {
-            String jar = new File(getClass().getProtectionDomain().getCodeSource().getLocation()
-                    .toURI()).getPath();
-            Process p = new ProcessBuilder(
-                    "java",
-                    "-Xms4g", // TODO parameterize
-                    "-Xmx16g",
-                    "-cp",
-                    jar,
-                    "calculator.App",
+            List<String> command = javaCommand(heapMb);
+            command.addAll(Arrays.asList(
                     "--project", projectDir.toPath().toAbsolutePath().toString(),
                     "--output_dir", outPath.toAbsolutePath().toString()
-            ).start();
-            int exitCode = p.waitFor();
-            logInputStream(p.getInputStream(), line -> logger.info("[" + projectDir.getName() + "] " + line));
-            logInputStream(p.getErrorStream(), line -> logger.severe("[" + projectDir.getName() + "] " + line));
+            ));
+            command.addAll(values.projectArgs());
+            Process p = new ProcessBuilder(command).start();
+            // パイプが詰まって子プロセスが止まらないよう、実行中から標準出力と標準エラーを読み続ける
+            String prefix = "[" + projectDir.getName() + "] ";
+            Thread outPump = startPump(p.getInputStream(), line -> {
+                if (!WorkerProtocol.isMessage(line)) {
+                    logger.info(prefix + line);
+                    return;
+                }
+                try {
+                    JsonNode message = WorkerProtocol.parseMessage(line);
+                    if (WorkerProtocol.TYPE_PROGRESS.equals(message.get("type").asText())) {
+                        tracker.update(job, WorkerProtocol.parseProgress(message));
+                    } else if (WorkerProtocol.TYPE_RESULT.equals(message.get("type").asText())) {
+                        store.append(job.dataType, message.get("record"));
+                    }
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, prefix + "failed to handle message: " + line, e);
+                }
+            }, "pump-" + projectDir.getName() + "-stdout");
+            Thread errPump = startPump(p.getErrorStream(), line -> logger.severe(prefix + line),
+                    "pump-" + projectDir.getName() + "-stderr");
+            long timeout = values.hardProjectTimeoutSeconds();
+            boolean finished = true;
+            if (timeout > 0) {
+                finished = p.waitFor(timeout, TimeUnit.SECONDS);
+            } else {
+                p.waitFor();
+            }
+            if (!finished) {
+                // 子プロセス自身の期限内に終わらなかったので強制終了し、結果だけは残す
+                p.destroyForcibly().waitFor();
+                logger.severe("[" + projectDir.getName() + "] killed after " + timeout + " seconds");
+                store.append(job.dataType, ProjectMetrics.timeoutRecord(projectDir.getName(), job.fileCount));
+            }
+            outPump.join();
+            errPump.join();
         } catch (URISyntaxException | IOException | InterruptedException e) {
                 logger.log(Level.SEVERE, "error processing " + projectDir, e);
         }
     }
 
+    // 子プロセスを立ち上げずに、このスレッドで 1 プロジェクトを処理する
+    private void preprocessInProcess(ProjectJob job, Path outPath) {
+        File projectDir = job.projectDir;
+        String prefix = "[" + projectDir.getName() + "] ";
+        try (PrintStream out = new PrintStream(new LineLoggingOutputStream(line -> logger.info(prefix + line)), true);
+             PrintStream err = new PrintStream(new LineLoggingOutputStream(line -> logger.severe(prefix + line)), true)) {
+            try {
+                ProjectPreprocessTask task = new ProjectPreprocessTask(projectDir, outPath, values, out, err);
+                task.setProgressListener(progress -> tracker.update(job, progress));
+                task.setResultListener(record -> {
+                    try {
+                        store.append(job.dataType, record);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                task.run();
+            } catch (Throwable e) {
+                // StackOverflowError や OutOfMemoryError でも他のプロジェクトは続行する
+                // (このプロジェクトのパーサや AST はここで到達不能になり回収される)
+                logger.log(Level.SEVERE, "error processing " + projectDir, e);
+            }
+        }
+    }
+
+    private Thread startPump(InputStream inputStream, Consumer<String> loggingMethod, String name) {
+        Thread thread = new Thread(() -> {
+            try {
+                logInputStream(inputStream, loggingMethod);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "failed to read child process output", e);
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
     private void logInputStream(InputStream inputStream, Consumer<String> loggingMethod) throws IOException {
         InputStreamReader inputStreamReader = new InputStreamReader(inputStream);
         BufferedReader bufferReader = new BufferedReader(inputStreamReader);
@@ -120,4 +330,38 @@ public class DatasetPreprocessor {
             }
         }
     }
+
+    private static class LineLoggingOutputStream extends OutputStream {
+        private final Consumer<String> loggingMethod;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        public LineLoggingOutputStream(Consumer<String> loggingMethod) {
+            this.loggingMethod = loggingMethod;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            if (b == '\n') {
+                flushLine();
+            } else {
+                buffer.write(b);
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (buffer.size() > 0) {
+                flushLine();
+            }
+        }
+
+        private void flushLine() {
+            String line = buffer.toString();
+            buffer.reset();
+            if (line.endsWith("\r")) {
+                line = line.substring(0, line.length() - 1);
+            }
+            loggingMethod.accept(line);
+        }
+    }
 }
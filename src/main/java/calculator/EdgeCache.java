@@ -0,0 +1,147 @@
+package calculator;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-disk cache of the edges extracted from each source file of a project.
+ * <p>
+ * Entries are keyed by the file path relative to the project root and the SHA-256 of its content.
+ * Package IDs are only meaningful for one package set, so the whole cache is discarded when the
+ * project's package set (or the cache format) changes. Entries of files that no longer exist are
+ * dropped on {@link #save()}.
+ * <p>
+ * Edges of an unchanged file are reused even if a file it depends on was edited, so a declaration
+ * moving between two existing packages is not picked up until the cache file is deleted.
+ */
+public class EdgeCache {
+    private static final int MAGIC = 0x51454331;
+    private static final int VERSION = 1;
+
+    private final Path cacheFile;
+    private final byte[] packageFingerprint;
+    private final Map<String, Entry> loaded;
+    private final Map<String, Entry> current = new ConcurrentHashMap<>();
+
+    private EdgeCache(Path cacheFile, byte[] packageFingerprint, Map<String, Entry> loaded) {
+        this.cacheFile = cacheFile;
+        this.packageFingerprint = packageFingerprint;
+        this.loaded = loaded;
+    }
+
+    public static EdgeCache load(Path cacheFile, PackageIndex packageIndex) {
+        byte[] fingerprint = sha256(String.join("\n", packageIndex.names()).getBytes(StandardCharsets.UTF_8));
+        Map<String, Entry> loaded = new HashMap<>();
+        if (Files.exists(cacheFile)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+                if (in.readInt() == MAGIC && in.readInt() == VERSION
+                        && Arrays.equals(readBytes(in), fingerprint)) {
+                    int entryCount = in.readInt();
+                    for (int i = 0; i < entryCount; i++) {
+                        String path = in.readUTF();
+                        byte[] hash = readBytes(in);
+                        int pairCount = in.readInt();
+                        EdgeCounts edges = new EdgeCounts(pairCount);
+                        for (int j = 0; j < pairCount; j++) {
+                            edges.add(in.readInt(), in.readInt(), in.readInt());
+                        }
+                        loaded.put(path, new Entry(hash, edges));
+                    }
+                }
+            } catch (IOException e) {
+                // 壊れたキャッシュは使わずに作り直す
+                loaded.clear();
+            }
+        }
+        return new EdgeCache(cacheFile, fingerprint, loaded);
+    }
+
+    // 内容が変わっていなければキャッシュ済みの辺を返す
+    public EdgeCounts get(String path, byte[] hash) {
+        Entry entry = loaded.get(path);
+        if (entry == null || !Arrays.equals(entry.hash, hash)) {
+            return null;
+        }
+        current.put(path, entry);
+        return entry.edges;
+    }
+
+    public void put(String path, byte[] hash, EdgeCounts edges) {
+        current.put(path, new Entry(hash, edges));
+    }
+
+    public void save() throws IOException {
+        Files.createDirectories(cacheFile.getParent());
+        Path tmpFile = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeBytes(out, packageFingerprint);
+            out.writeInt(current.size());
+            for (Map.Entry<String, Entry> en : current.entrySet()) {
+                out.writeUTF(en.getKey());
+                writeBytes(out, en.getValue().hash);
+                writeEdges(out, en.getValue().edges);
+            }
+        }
+        Files.move(tmpFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static byte[] sha256(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static byte[] sha256(ByteBuffer content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(content);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeEdges(DataOutputStream out, EdgeCounts edges) throws IOException {
+        List<int[]> pairs = new ArrayList<>(edges.pairCount());
+        edges.forEach((src, dst, count) -> pairs.add(new int[]{src, dst, count}));
+        out.writeInt(pairs.size());
+        for (int[] pair : pairs) {
+            out.writeInt(pair[0]);
+            out.writeInt(pair[1]);
+            out.writeInt(pair[2]);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static class Entry {
+        private final byte[] hash;
+        private final EdgeCounts edges;
+
+        private Entry(byte[] hash, EdgeCounts edges) {
+            this.hash = hash;
+            this.edges = edges;
+        }
+    }
+}
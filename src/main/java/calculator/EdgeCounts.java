@@ -0,0 +1,139 @@
+package calculator;
+
+import java.util.Arrays;
+
+/**
+ * Counts edges per (source, destination) package ID pair.
+ * Each pair is packed into one long and kept in an open-addressing table,
+ * so memory scales with the number of distinct pairs rather than call sites.
+ */
+public class EdgeCounts {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int[] counts;
+    private int pairCount;
+
+    public EdgeCounts() {
+        this(16);
+    }
+
+    public EdgeCounts(int expectedPairs) {
+        int capacity = Integer.highestOneBit(Math.max(expectedPairs, 8) * 2 - 1) << 1;
+        this.keys = new long[capacity];
+        this.counts = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    public void add(int src, int dst) {
+        add(src, dst, 1);
+    }
+
+    public void add(int src, int dst, int count) {
+        long key = pack(src, dst);
+        int mask = keys.length - 1;
+        int i = slot(key) & mask;
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                counts[i] += count;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        counts[i] = count;
+        if (++pairCount * 2 > keys.length) {
+            grow();
+        }
+    }
+
+    public void addAll(EdgeCounts other) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] != EMPTY) {
+                long key = other.keys[i];
+                add(source(key), destination(key), other.counts[i]);
+            }
+        }
+    }
+
+    // 差分更新用。数が 0 になった組も残るが、forEach では飛ばされる
+    public void subtractAll(EdgeCounts other) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] != EMPTY) {
+                long key = other.keys[i];
+                add(source(key), destination(key), -other.counts[i]);
+            }
+        }
+    }
+
+    public int get(int src, int dst) {
+        long key = pack(src, dst);
+        int mask = keys.length - 1;
+        int i = slot(key) & mask;
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                return counts[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return 0;
+    }
+
+    // 登録されている (src, dst) の組の数
+    public int pairCount() {
+        return pairCount;
+    }
+
+    public long edgeCount() {
+        long total = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                total += counts[i];
+            }
+        }
+        return total;
+    }
+
+    public void forEach(EdgeConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY && counts[i] != 0) {
+                consumer.accept(source(keys[i]), destination(keys[i]), counts[i]);
+            }
+        }
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new long[oldKeys.length * 2];
+        counts = new int[oldCounts.length * 2];
+        Arrays.fill(keys, EMPTY);
+        pairCount = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                add(source(oldKeys[i]), destination(oldKeys[i]), oldCounts[i]);
+            }
+        }
+    }
+
+    private static long pack(int src, int dst) {
+        return ((long) src << 32) | (dst & 0xFFFFFFFFL);
+    }
+
+    private static int source(long key) {
+        return (int) (key >> 32);
+    }
+
+    private static int destination(long key) {
+        return (int) key;
+    }
+
+    private static int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    public interface EdgeConsumer {
+        void accept(int src, int dst, int count);
+    }
+}
@@ -0,0 +1,102 @@
+package calculator;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Streams files through a fixed set of extractor threads into a single accumulator.
+ * <p>
+ * A producer feeds paths into a bounded queue, each worker turns one file into its {@link EdgeCounts}
+ * and hands it over through a second bounded queue, and the calling thread folds every result into the running
+ * counts as soon as it arrives. Only a few files are in flight at any time, so neither the ASTs nor the per-file
+ * counts pile up with the size of the project. Counts are integers, so the result does not depend on the order
+ * in which files finish.
+ */
+class EdgePipeline {
+    private static final Path END_OF_PATHS = Paths.get("");
+    private static final EdgeCounts END_OF_RESULTS = new EdgeCounts();
+
+    private final int numThreads;
+    private final int queueCapacity;
+
+    EdgePipeline(int numThreads) {
+        this.numThreads = numThreads;
+        this.queueCapacity = numThreads * 2;
+    }
+
+    // extractor はワーカースレッドから呼ばれる。スレッドごとの状態は ThreadLocal で持つこと
+    EdgeCounts run(List<Path> paths, Function<Path, EdgeCounts> extractor) {
+        BlockingQueue<Path> pathQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<EdgeCounts> resultQueue = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> {
+            try {
+                for (Path path : paths) {
+                    pathQueue.put(path);
+                }
+                for (int i = 0; i < numThreads; i++) {
+                    pathQueue.put(END_OF_PATHS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "edge-producer"));
+        for (int i = 0; i < numThreads; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    while (true) {
+                        Path path = pathQueue.take();
+                        if (path == END_OF_PATHS) {
+                            break;
+                        }
+                        // 失敗した後も producer が詰まらないように、残りのパスは読み捨てる
+                        if (failure.get() != null) {
+                            continue;
+                        }
+                        try {
+                            resultQueue.put(extractor.apply(path));
+                        } catch (RuntimeException | Error e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                    resultQueue.put(END_OF_RESULTS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "edge-worker-" + i));
+        }
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        EdgeCounts edges = new EdgeCounts();
+        try {
+            int finished = 0;
+            while (finished < numThreads) {
+                EdgeCounts fileEdges = resultQueue.take();
+                if (fileEdges == END_OF_RESULTS) {
+                    finished++;
+                } else {
+                    edges.addAll(fileEdges);
+                }
+            }
+        } catch (InterruptedException e) {
+            threads.forEach(Thread::interrupt);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while collecting edges", e);
+        }
+        if (failure.get() != null) {
+            throw new IllegalStateException("failed to collect edges", failure.get());
+        }
+        return edges;
+    }
+}
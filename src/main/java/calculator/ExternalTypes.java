@@ -0,0 +1,97 @@
+package calculator;
+
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.ImportDeclaration;
+import com.github.javaparser.ast.body.TypeDeclaration;
+
+import java.util.*;
+
+/**
+ * Decides whether a simple name used as the scope of a call or field access refers to an external type, so that
+ * the access can be skipped without resolving it: members of JDK and library types never produce a package edge.
+ * <p>
+ * A name is external when a single-type import names an indexed type outside the project, or when no type of the
+ * file, of its package or of an on-demand imported project package has that name and {@code java.lang} or an
+ * on-demand import provides an indexed type of that name. Project types are taken from file names, as in
+ * {@link ImportEdgeExtractor}, plus the types declared in the file itself. A member type inherited from another
+ * file, or a field or variable named like an external type, would shadow it and is not detected, which the
+ * naming conventions make unlikely.
+ */
+public class ExternalTypes {
+    private final TypeIndex index;
+    private final Map<String, Set<String>> typesByPackage;
+
+    public ExternalTypes(TypeIndex index, Map<String, Set<String>> typesByPackage) {
+        this.index = index;
+        this.typesByPackage = typesByPackage;
+    }
+
+    public FileScope scopeOf(CompilationUnit cu) {
+        return new FileScope(cu);
+    }
+
+    /**
+     * The names visible in one compilation unit. Not thread-safe; a scope belongs to one visitor.
+     */
+    public class FileScope {
+        private final String packageName;
+        private final Map<String, String> singleImports = new HashMap<>();
+        private final List<String> onDemandImports = new ArrayList<>();
+        private final Set<String> localTypes = new HashSet<>();
+        private final Map<String, Boolean> decided = new HashMap<>();
+
+        private FileScope(CompilationUnit cu) {
+            packageName = cu.getPackageDeclaration().map(p -> p.getNameAsString()).orElse("");
+            for (ImportDeclaration imported : cu.getImports()) {
+                if (imported.isStatic()) {
+                    continue;
+                }
+                if (imported.isAsterisk()) {
+                    onDemandImports.add(imported.getNameAsString());
+                } else {
+                    singleImports.put(imported.getName().getIdentifier(), imported.getNameAsString());
+                }
+            }
+            // 入れ子のクラスも同じ名前の外部の型を隠す
+            for (TypeDeclaration<?> type : cu.findAll(TypeDeclaration.class)) {
+                localTypes.add(type.getNameAsString());
+            }
+        }
+
+        public boolean isExternal(String simpleName) {
+            return decided.computeIfAbsent(simpleName, this::decide);
+        }
+
+        private boolean decide(String simpleName) {
+            if (localTypes.contains(simpleName)) {
+                return false;
+            }
+            String imported = singleImports.get(simpleName);
+            if (imported != null) {
+                int dot = imported.lastIndexOf('.');
+                return dot >= 0 && !typesByPackage.containsKey(imported.substring(0, dot)) && index.contains(imported);
+            }
+            if (isProjectType(packageName, simpleName)) {
+                return false;
+            }
+            for (String onDemand : onDemandImports) {
+                if (isProjectType(onDemand, simpleName)) {
+                    return false;
+                }
+            }
+            if (index.contains("java.lang." + simpleName)) {
+                return true;
+            }
+            for (String onDemand : onDemandImports) {
+                if (index.contains(onDemand + "." + simpleName)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isProjectType(String packageName, String simpleName) {
+            return typesByPackage.getOrDefault(packageName, Collections.emptySet()).contains(simpleName);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package calculator;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Recomputes metrics from the {@link PackageGraph} files saved by earlier runs, without parsing any source.
+ * <p>
+ * Every {@code .graph} file under the input directory is mapped and its Q value computed, along with the Q values
+ * of the packages truncated to the depths given by {@code --depths}. One JSON line per graph goes to
+ * {@code graph_metrics.jsonl} in the output directory, keyed by the graph's path relative to the input directory.
+ */
+public class GraphQuery implements Runnable {
+    public static final String FILE_NAME = "graph_metrics.jsonl";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final Path graphsDir;
+    private final Path outputDir;
+    private final CommandLineValues values;
+
+    public GraphQuery(CommandLineValues values) {
+        this.graphsDir = values.graphs;
+        this.outputDir = values.outputDir;
+        this.values = values;
+    }
+
+    @Override
+    public void run() {
+        try {
+            query();
+        } catch (IOException e) {
+            System.err.println("failed to read package graphs: " + graphsDir);
+            e.printStackTrace();
+        }
+    }
+
+    private void query() throws IOException {
+        List<Path> graphFiles;
+        try (Stream<Path> paths = Files.walk(graphsDir)) {
+            graphFiles = paths.filter(path -> path.getFileName().toString().endsWith(PackageGraph.SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        Files.createDirectories(outputDir);
+        long start = System.nanoTime();
+        int failures = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(outputDir.resolve(FILE_NAME), StandardCharsets.UTF_8)) {
+            for (Path graphFile : graphFiles) {
+                PackageGraph graph;
+                try {
+                    graph = PackageGraph.open(graphFile);
+                } catch (IOException e) {
+                    // 壊れたファイルは飛ばして続ける
+                    System.err.println("failed to read " + graphFile + ": " + e.getMessage());
+                    failures++;
+                    continue;
+                }
+                writer.write(mapper.writeValueAsString(metrics(graphsDir.relativize(graphFile).toString(), graph)));
+                writer.newLine();
+            }
+        }
+        System.out.println("computed metrics of " + (graphFiles.size() - failures) + " graphs in "
+                + String.format("%.1f", (System.nanoTime() - start) / 1e9) + " seconds"
+                + (failures > 0 ? ", " + failures + " unreadable" : ""));
+    }
+
+    private ObjectNode metrics(String name, PackageGraph graph) {
+        PackageIndex packages = graph.getPackages();
+        Modularity modularity = new Modularity(packages.size());
+        graph.forEach(modularity::add);
+
+        ObjectNode record = mapper.createObjectNode();
+        record.put("graph", name);
+        record.put("packages", packages.size());
+        record.put("pairs", graph.pairCount());
+        record.put("edges", modularity.getEdgeCount());
+        record.put("q_value", modularity.value());
+
+        SortedSet<Integer> depths = values.depths(packages.maxDepth());
+        if (!depths.isEmpty()) {
+            ObjectNode qValues = record.putObject("q_values");
+            for (int depth : depths) {
+                // 辺は足し合わせるだけなので、切り詰めた ID に付け替えてそのまま数える
+                PackageIndex coarse = packages.truncate(depth);
+                if (coarse.size() < 2) {
+                    // 1 つのパッケージにまとまった深さは Q 値が定義できない (QCalculator と同じ)
+                    continue;
+                }
+                int[] mapping = packages.truncate(depth, coarse);
+                Modularity coarseModularity = new Modularity(coarse.size());
+                graph.forEach((src, dst, count) -> coarseModularity.add(src < 0 ? src : mapping[src], mapping[dst], count));
+                qValues.put("depth." + depth, coarseModularity.value());
+            }
+        }
+        return record;
+    }
+}
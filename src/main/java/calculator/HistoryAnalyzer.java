@@ -0,0 +1,179 @@
+package calculator;
+
+import com.github.javaparser.symbolsolver.javaparsermodel.JavaParserFacade;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Computes the Q value at every commit of a local git repository's history.
+ * <p>
+ * The commits are checked out one by one into a detached worktree, so the user's working copy is never touched.
+ * Per-file edge counts are kept between commits: at each step only the files that the commit changed are parsed
+ * and resolved again, and their old counts are subtracted from the project totals before the new ones are added.
+ * When the set of packages changes the package IDs change too, so that commit is analysed from scratch.
+ * As with the edge cache, edges of an unchanged file are not revisited when a declaration it refers to moves.
+ * The series is written to {@code <repository>.history.tsv} in the output directory, one line per commit.
+ */
+public class HistoryAnalyzer implements Runnable {
+    private final Path repository;
+    private final Path outPath;
+    private final CommandLineValues values;
+
+    public HistoryAnalyzer(CommandLineValues values) {
+        this.repository = values.history.toAbsolutePath();
+        this.outPath = values.outputDir;
+        this.values = values;
+    }
+
+    @Override
+    public void run() {
+        String name = repository.getFileName().toString();
+        Path worktree = null;
+        try {
+            List<String[]> commits = git(repository, "log", "--first-parent", "--reverse", "--format=%H%x09%ct", values.range)
+                    .stream().map(line -> line.split("\t")).collect(Collectors.toList());
+            if (commits.isEmpty()) {
+                System.out.println("no commits in range " + values.range);
+                return;
+            }
+            worktree = Files.createTempDirectory("q-calculator-history");
+            git(repository, "worktree", "add", "--detach", worktree.toString(), commits.get(0)[0]);
+
+            Files.createDirectories(outPath);
+            try (PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(outPath.resolve(name + ".history.tsv").toFile()), StandardCharsets.UTF_8)))) {
+                writer.println("commit\tcommit_time\tq_value\tfiles\tchanged_files\treparsed_files\tskipped_files");
+                analyze(worktree, commits, writer);
+            }
+            System.out.println("complete history " + repository);
+        } catch (Exception e) {
+            System.err.println("failed to process history: " + repository);
+            e.printStackTrace();
+        } finally {
+            if (worktree != null) {
+                try {
+                    git(repository, "worktree", "remove", "--force", worktree.toString());
+                } catch (IOException e) {
+                    System.err.println("failed to remove worktree: " + worktree);
+                }
+            }
+        }
+    }
+
+    private void analyze(Path worktree, List<String[]> commits, PrintWriter writer) throws IOException {
+        // ファイル (worktree からの相対パス) ごとの辺と、その合計
+        Map<String, EdgeCounts> fileEdges = new HashMap<>();
+        EdgeCounts totals = new EdgeCounts();
+        PackageIndex previousIndex = null;
+        String previousCommit = null;
+
+        for (String[] commit : commits) {
+            String hash = commit[0];
+            git(worktree, "checkout", "-q", "--detach", hash);
+
+            // チェックアウトごとに型ソルバを作り直す (JavaParserTypeSolver は読んだファイルをキャッシュする)
+            List<CachingTypeSolver> typeCaches = new ArrayList<>();
+            QCalculator calculator = new QCalculator(worktree.toFile(), outPath,
+                    sourceRoots -> ProjectPreprocessTask.createParser(sourceRoots, values, typeCaches),
+                    values, new ProjectProgress(), new ProjectMetrics());
+            List<Path> targetPaths = calculator.listPaths();
+            PackageIndex packageIndex = calculator.packageIndex(targetPaths);
+            ImportEdgeExtractor extractor = values.engine == QCalculator.Engine.IMPORTS
+                    ? calculator.importExtractor(targetPaths, packageIndex) : null;
+
+            Map<String, Path> current = new HashMap<>();
+            for (Path path : targetPaths) {
+                current.put(worktree.relativize(path).toString(), path);
+            }
+            Collection<String> changed;
+            if (previousIndex == null || !Arrays.equals(previousIndex.names(), packageIndex.names())) {
+                // パッケージ ID が変わるので全て数え直す
+                fileEdges.clear();
+                totals = new EdgeCounts();
+                changed = current.keySet();
+            } else {
+                // 非 ASCII のパスが引用符付きでエスケープされないように quotePath を切り、改行を含む名前のために NUL で区切る
+                changed = git(worktree, '\0', "-c", "core.quotePath=false", "diff", "-z", "--name-only", "--no-renames",
+                        previousCommit, hash).stream()
+                        .map(file -> file.replace("/", File.separator))
+                        .collect(Collectors.toList());
+            }
+
+            int reparsed = 0;
+            for (String file : changed) {
+                EdgeCounts old = fileEdges.remove(file);
+                if (old != null) {
+                    totals.subtractAll(old);
+                }
+                Path path = current.get(file);
+                if (path != null) {
+                    EdgeCounts edges = calculator.fileEdges(path, packageIndex, extractor);
+                    fileEdges.put(file, edges);
+                    totals.addAll(edges);
+                    reparsed++;
+                }
+            }
+
+            Modularity modularity = new Modularity(packageIndex.size());
+            totals.forEach(modularity::add);
+            double qValue = modularity.value();
+            writer.println(hash + "\t" + commit[1] + "\t" + qValue + "\t" + targetPaths.size() + "\t" + changed.size()
+                    + "\t" + reparsed + "\t" + calculator.getSkippedFiles());
+            writer.flush();
+            System.out.println("commit " + hash + ": q=" + qValue + ", reparsed " + reparsed + " files");
+
+            previousIndex = packageIndex;
+            previousCommit = hash;
+            calculator.releaseParser();
+            synchronized (JavaParserFacade.class) {
+                JavaParserFacade.clearInstances();
+            }
+        }
+    }
+
+    // オフラインで動くように、ローカルの git コマンドだけを使う
+    private static List<String> git(Path dir, String... args) throws IOException {
+        return git(dir, '\n', args);
+    }
+
+    // 出力を separator で区切って、空でない要素を返す
+    private static List<String> git(Path dir, char separator, String... args) throws IOException {
+        List<String> command = new ArrayList<>(Arrays.asList("git", "-C", dir.toString()));
+        command.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = reader.read()) >= 0) {
+                if (c != separator) {
+                    line.append((char) c);
+                } else if (line.length() > 0) {
+                    lines.add(line.toString());
+                    line.setLength(0);
+                }
+            }
+            if (line.length() > 0) {
+                lines.add(line.toString());
+            }
+        }
+        try {
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new IOException("git " + String.join(" ", args) + " exited with " + exitCode);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while running git", e);
+        }
+        return lines;
+    }
+}
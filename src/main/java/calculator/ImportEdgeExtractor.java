@@ -0,0 +1,316 @@
+package calculator;
+
+import java.util.*;
+
+/**
+ * Approximate edge extractor that never builds an AST or calls the symbol solver.
+ * <p>
+ * A single lexical pass over the source reads the package and import declarations and then counts every
+ * reference to a project type in the body: simple names are looked up through single-type imports,
+ * the file's own package and on-demand imports (in that order), and qualified names such as
+ * {@code com.foo.Bar.baz()} through the longest package prefix followed by a type of that package.
+ * Each reference counts as one edge, so the result approximates the call-site counts of the precise engine.
+ * Project types are taken from the file names, one top-level type per file.
+ */
+public class ImportEdgeExtractor {
+    private final PackageIndex allPackages;
+    private final Map<String, Set<String>> typesByPackage;
+
+    public ImportEdgeExtractor(PackageIndex allPackages, Map<String, Set<String>> typesByPackage) {
+        this.allPackages = allPackages;
+        this.typesByPackage = typesByPackage;
+    }
+
+    public EdgeCounts extract(CharSequence code) {
+        return new Scan(code).run();
+    }
+
+    private class Scan {
+        private final CharSequence code;
+        private final EdgeCounts edges = new EdgeCounts();
+        private final Map<String, Integer> singleImports = new HashMap<>();
+        private final List<Integer> onDemandImports = new ArrayList<>();
+        private final List<String> chain = new ArrayList<>();
+        private String sourcePackage;
+        private int sourceId = -1;
+        private String previous = "";
+        private boolean staticImport;
+        private char lastSymbol = ';';
+        private int pos;
+
+        private Scan(CharSequence code) {
+            this.code = code;
+        }
+
+        private EdgeCounts run() {
+            int n = code.length();
+            while (pos < n) {
+                char c = code.charAt(pos);
+                if (c == '/' && pos + 1 < n && code.charAt(pos + 1) == '/') {
+                    skipLineComment();
+                } else if (c == '/' && pos + 1 < n && code.charAt(pos + 1) == '*') {
+                    skipBlockComment();
+                } else if (c == '"') {
+                    skipString();
+                    lastSymbol = c;
+                } else if (c == '\'') {
+                    skipCharLiteral();
+                    lastSymbol = c;
+                } else if (Character.isJavaIdentifierStart(c)) {
+                    boolean wildcard = readChain();
+                    onChain(wildcard);
+                    lastSymbol = 'a';
+                } else if (Character.isDigit(c)) {
+                    while (pos < n && (Character.isJavaIdentifierPart(code.charAt(pos)) || code.charAt(pos) == '.')) {
+                        pos++;
+                    }
+                    lastSymbol = c;
+                } else {
+                    if (!Character.isWhitespace(c)) {
+                        lastSymbol = c;
+                    }
+                    pos++;
+                }
+            }
+            return edges;
+        }
+
+        // a.b.C のようにドットでつながった識別子を読む。末尾が .* なら true
+        private boolean readChain() {
+            chain.clear();
+            int n = code.length();
+            while (true) {
+                int start = pos;
+                while (pos < n && Character.isJavaIdentifierPart(code.charAt(pos))) {
+                    pos++;
+                }
+                chain.add(code.subSequence(start, pos).toString());
+                int next = skipWhitespace(pos);
+                if (next >= n || code.charAt(next) != '.') {
+                    return false;
+                }
+                int afterDot = skipWhitespace(next + 1);
+                if (afterDot < n && code.charAt(afterDot) == '*') {
+                    pos = afterDot + 1;
+                    return true;
+                }
+                if (afterDot >= n || !Character.isJavaIdentifierStart(code.charAt(afterDot))) {
+                    pos = next + 1;
+                    return false;
+                }
+                pos = afterDot;
+            }
+        }
+
+        private void onChain(boolean wildcard) {
+            String first = chain.get(0);
+            if (chain.size() == 1 && first.equals("static") && previous.equals("import")) {
+                staticImport = true;
+                return;
+            }
+            if (previous.equals("package") && sourcePackage == null) {
+                sourcePackage = String.join(".", chain);
+                sourceId = allPackages.idOf(sourcePackage);
+            } else if (previous.equals("import")) {
+                addImport(wildcard, staticImport);
+            } else if (isUnqualifiedCall()) {
+                // 修飾のないメソッド呼び出しは、同じクラス (パッケージ) のメソッドとみなす
+                if (sourceId >= 0) {
+                    edges.add(sourceId, sourceId);
+                }
+            } else if (!isDeclarationKeyword(previous)) {
+                addReference();
+            }
+            staticImport = false;
+            previous = chain.size() == 1 ? first : "";
+        }
+
+        // foo(...) の形で、直前が型名ではない (メソッド宣言ではない) もの
+        private boolean isUnqualifiedCall() {
+            if (chain.size() != 1 || sourcePackage == null) {
+                return false;
+            }
+            int next = skipWhitespace(pos);
+            if (next >= code.length() || code.charAt(next) != '(') {
+                return false;
+            }
+            String name = chain.get(0);
+            if (isKeyword(name) || hasType(sourcePackage, name)) {
+                // 制御構文か、コンストラクタ宣言
+                return false;
+            }
+            if (lastSymbol == 'a') {
+                return STATEMENT_KEYWORDS.contains(previous);
+            }
+            return "(){};=,!&|?:+-*/%^~".indexOf(lastSymbol) >= 0;
+        }
+
+        private void addImport(boolean wildcard, boolean isStatic) {
+            String name = String.join(".", chain);
+            if (wildcard) {
+                int id = allPackages.idOf(name);
+                if (id >= 0) {
+                    onDemandImports.add(id);
+                }
+                return;
+            }
+            int prefix = packagePrefix(0);
+            if (prefix < 0) {
+                return;
+            }
+            int id = allPackages.idOf(String.join(".", chain.subList(0, prefix)));
+            // static import のメンバー名も、宣言している型のパッケージへの参照として扱う
+            if (!isStatic || chain.size() > prefix + 1) {
+                singleImports.put(chain.get(chain.size() - 1), id);
+            }
+        }
+
+        private void addReference() {
+            if (sourcePackage == null) {
+                return;
+            }
+            String first = chain.get(0);
+            Integer imported = singleImports.get(first);
+            if (imported != null) {
+                edges.add(sourceId, imported);
+                return;
+            }
+            if (sourceId >= 0 && hasType(sourcePackage, first)) {
+                edges.add(sourceId, sourceId);
+                return;
+            }
+            for (int id : onDemandImports) {
+                if (hasType(allPackages.nameOf(id), first)) {
+                    edges.add(sourceId, id);
+                    return;
+                }
+            }
+            int prefix = packagePrefix(0);
+            if (prefix >= 0) {
+                edges.add(sourceId, allPackages.idOf(String.join(".", chain.subList(0, prefix))));
+            }
+        }
+
+        // chain の先頭から最長のパッケージ名で、その次の要素がそのパッケージの型であるものの長さを返す
+        private int packagePrefix(int from) {
+            StringBuilder sb = new StringBuilder();
+            int found = -1;
+            for (int i = from; i < chain.size() - 1; i++) {
+                if (i > from) {
+                    sb.append('.');
+                }
+                sb.append(chain.get(i));
+                String packageName = sb.toString();
+                if (allPackages.contains(packageName) && hasType(packageName, chain.get(i + 1))) {
+                    found = i + 1;
+                }
+            }
+            return found;
+        }
+
+        private boolean hasType(String packageName, String typeName) {
+            Set<String> types = typesByPackage.get(packageName);
+            return types != null && types.contains(typeName);
+        }
+
+        private int skipWhitespace(int i) {
+            while (i < code.length() && Character.isWhitespace(code.charAt(i))) {
+                i++;
+            }
+            return i;
+        }
+
+        // String と違って CharSequence には検索のメソッドがない
+        private boolean startsWith(String prefix, int from) {
+            if (from + prefix.length() > code.length()) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length(); i++) {
+                if (code.charAt(from + i) != prefix.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int indexOf(String target, int from) {
+            for (int i = from; i + target.length() <= code.length(); i++) {
+                if (code.charAt(i) == target.charAt(0) && startsWith(target, i)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void skipLineComment() {
+            int end = indexOf("\n", pos);
+            pos = end < 0 ? code.length() : end + 1;
+        }
+
+        private void skipBlockComment() {
+            int end = indexOf("*/", pos + 2);
+            pos = end < 0 ? code.length() : end + 2;
+        }
+
+        private void skipString() {
+            if (startsWith("\"\"\"", pos)) {
+                int end = indexOf("\"\"\"", pos + 3);
+                pos = end < 0 ? code.length() : end + 3;
+                return;
+            }
+            pos++;
+            while (pos < code.length()) {
+                char c = code.charAt(pos);
+                if (c == '\\') {
+                    pos += 2;
+                } else if (c == '"' || c == '\n') {
+                    pos++;
+                    return;
+                } else {
+                    pos++;
+                }
+            }
+        }
+
+        private void skipCharLiteral() {
+            pos++;
+            while (pos < code.length()) {
+                char c = code.charAt(pos);
+                if (c == '\\') {
+                    pos += 2;
+                } else if (c == '\'' || c == '\n') {
+                    pos++;
+                    return;
+                } else {
+                    pos++;
+                }
+            }
+        }
+    }
+
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const", "continue",
+            "default", "do", "double", "else", "enum", "extends", "final", "finally", "float", "for", "goto", "if",
+            "implements", "import", "instanceof", "int", "interface", "long", "native", "new", "package", "private",
+            "protected", "public", "return", "short", "static", "strictfp", "super", "switch", "synchronized", "this",
+            "throw", "throws", "transient", "try", "void", "volatile", "while", "yield"));
+
+    private static final Set<String> STATEMENT_KEYWORDS = new HashSet<>(Arrays.asList(
+            "return", "throw", "else", "case", "yield", "assert"));
+
+    private static boolean isKeyword(String token) {
+        return KEYWORDS.contains(token);
+    }
+
+    private static boolean isDeclarationKeyword(String token) {
+        switch (token) {
+            case "class":
+            case "interface":
+            case "enum":
+            case "record":
+                return true;
+            default:
+                return false;
+        }
+    }
+}
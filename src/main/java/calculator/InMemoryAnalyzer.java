@@ -0,0 +1,185 @@
+package calculator;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.Providers;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.PackageDeclaration;
+import com.github.javaparser.symbolsolver.javaparsermodel.JavaParserFacade;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Computes the Q value of a project whose sources are held in memory, for services that get code from a blob store
+ * or a review diff and should not write it to a temporary directory first.
+ * <p>
+ * The input maps each file's path (only its name is used, to skip non-source and test files as
+ * {@link SourceDiscovery} does) to its content. All files are parsed once, their types are registered in an
+ * {@link InMemoryTypeSolver}, and the edges are collected from the same ASTs with the precise engine. The
+ * {@code --type_index} and {@code --type_cache_size} settings of the given values apply as on the command line.
+ * <p>
+ * Each call builds its own parser and type solvers, so one analyzer can serve concurrent calls; a single call runs
+ * on the calling thread.
+ */
+public class InMemoryAnalyzer {
+    private final CommandLineValues values;
+
+    public InMemoryAnalyzer() {
+        this(new CommandLineValues());
+    }
+
+    public InMemoryAnalyzer(CommandLineValues values) {
+        this.values = values;
+    }
+
+    public Analysis analyze(Map<String, String> sources) {
+        ProjectMetrics metrics = new ProjectMetrics();
+        long totalWall = System.nanoTime();
+        long totalCpu = ProjectMetrics.cpuTime();
+        InMemoryTypeSolver projectTypes = new InMemoryTypeSolver();
+        JavaParser parser = ProjectPreprocessTask.createParser(List.of(projectTypes), values, new ArrayList<>());
+        try {
+            // パス順に処理して、同じ入力からは同じ結果になるようにする
+            List<CompilationUnit> units = new ArrayList<>();
+            Map<String, Set<String>> typesByPackage = new HashMap<>();
+            for (Map.Entry<String, String> entry : new TreeMap<>(sources).entrySet()) {
+                Path path = Paths.get(entry.getKey());
+                if (!SourceDiscovery.isSource(path)) {
+                    continue;
+                }
+                metrics.read(utf8Length(entry.getValue()));
+                long wall = System.nanoTime();
+                long cpu = ProjectMetrics.cpuTime();
+                CompilationUnit cu = QCalculator.parse(parser, Providers.provider(entry.getValue()));
+                metrics.record(ProjectMetrics.Phase.PARSE, wall, cpu);
+                if (cu == null) {
+                    metrics.parseFailed();
+                    continue;
+                }
+                units.add(cu);
+                projectTypes.add(cu);
+                // 型名はファイル名から取る (QCalculator と同じ)
+                String fileName = path.getFileName().toString();
+                typesByPackage.computeIfAbsent(packageOf(cu), k -> new HashSet<>())
+                        .add(fileName.substring(0, fileName.length() - ".java".length()));
+            }
+
+            PackageIndex packageIndex = new PackageIndex(typesByPackage.keySet());
+            ExternalTypes externalTypes = null;
+            if (values.typeIndex != null) {
+                TypeIndex typeIndex = TypeIndex.open(values.typeIndex, values.typeJarDirs());
+                externalTypes = new ExternalTypes(typeIndex, typesByPackage);
+            }
+            EdgeCounts edges = new EdgeCounts();
+            for (CompilationUnit cu : units) {
+                long wall = System.nanoTime();
+                long cpu = ProjectMetrics.cpuTime();
+                var visitor = new QCalculator.EdgeCollectorVisitor(packageIndex, Long.MAX_VALUE, metrics, externalTypes);
+                visitor.visit(cu, null);
+                edges.addAll(visitor.getEdges());
+                metrics.record(ProjectMetrics.Phase.RESOLVE, wall, cpu);
+            }
+
+            long wall = System.nanoTime();
+            long cpu = ProjectMetrics.cpuTime();
+            Modularity modularity = new Modularity(packageIndex.size());
+            edges.forEach(modularity::add);
+            double qValue = modularity.value();
+            metrics.record(ProjectMetrics.Phase.MODULARITY, wall, cpu);
+            metrics.record(ProjectMetrics.Phase.TOTAL, totalWall, totalCpu);
+            return new Analysis(qValue, units.size(), packageIndex, edges, modularity, metrics);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to open the type index: " + values.typeIndex, e);
+        } finally {
+            // JavaParserFacade は型ソルバを強参照したまま残るので、他の解析の途中でも消す
+            // (消された解析は次の名前解決でファサードを作り直すだけで、結果は変わらない)
+            synchronized (JavaParserFacade.class) {
+                JavaParserFacade.clearInstances();
+            }
+        }
+    }
+
+    // UTF-8 で書き出したときのバイト数 (ファイルから読む場合の計測値と揃えるため。コピーは作らない)
+    static long utf8Length(String text) {
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                // 対になっていないサロゲートは '?' の 1 バイトになる
+                length += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+        return length;
+    }
+
+    // ディレクトリではなく package 宣言に従う (SourceDiscovery と同じ)
+    private static String packageOf(CompilationUnit cu) {
+        return cu.getPackageDeclaration().map(PackageDeclaration::getNameAsString).orElse("");
+    }
+
+    /**
+     * Result of {@link #analyze(Map)}: the Q value, the package dependency graph it was computed from and the
+     * timings and resolution counts of the analysis.
+     */
+    public static class Analysis {
+        private final double qValue;
+        private final int fileCount;
+        private final PackageIndex packageIndex;
+        private final EdgeCounts edges;
+        private final long edgeCount;
+        private final long internalEdgeCount;
+        private final ProjectMetrics metrics;
+
+        Analysis(double qValue, int fileCount, PackageIndex packageIndex, EdgeCounts edges, Modularity modularity,
+                 ProjectMetrics metrics) {
+            this.qValue = qValue;
+            this.fileCount = fileCount;
+            this.packageIndex = packageIndex;
+            this.edges = edges;
+            this.edgeCount = modularity.getEdgeCount();
+            this.internalEdgeCount = modularity.getInternalCount();
+            this.metrics = metrics;
+        }
+
+        public double getQValue() {
+            return qValue;
+        }
+
+        // パースできたファイルの数
+        public int getFileCount() {
+            return fileCount;
+        }
+
+        public PackageIndex getPackageIndex() {
+            return packageIndex;
+        }
+
+        // パッケージ ID の組ごとの辺の数
+        public EdgeCounts getEdges() {
+            return edges;
+        }
+
+        public long getEdgeCount() {
+            return edgeCount;
+        }
+
+        // 同じパッケージの中で閉じている辺の数
+        public long getInternalEdgeCount() {
+            return internalEdgeCount;
+        }
+
+        public ProjectMetrics getMetrics() {
+            return metrics;
+        }
+    }
+}
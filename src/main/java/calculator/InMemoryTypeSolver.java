@@ -0,0 +1,48 @@
+package calculator;
+
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.resolution.declarations.ResolvedReferenceTypeDeclaration;
+import com.github.javaparser.symbolsolver.javaparsermodel.JavaParserFacade;
+import com.github.javaparser.symbolsolver.model.resolution.SymbolReference;
+import com.github.javaparser.symbolsolver.model.resolution.TypeSolver;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Solves the types declared in compilation units that were parsed from memory, the counterpart of
+ * {@code JavaParserTypeSolver} for sources that have no directory. Every type of an added unit, nested ones
+ * included, is found by its fully qualified name, and the declarations are built from the same AST nodes the
+ * calculator visits, so nothing is parsed twice.
+ */
+public class InMemoryTypeSolver implements TypeSolver {
+    private final Map<String, TypeDeclaration<?>> types = new HashMap<>();
+    private TypeSolver parent;
+
+    public void add(CompilationUnit cu) {
+        for (TypeDeclaration<?> type : cu.findAll(TypeDeclaration.class)) {
+            // ローカルクラスには完全限定名がない
+            type.getFullyQualifiedName().ifPresent(name -> types.putIfAbsent(name, type));
+        }
+    }
+
+    @Override
+    public TypeSolver getParent() {
+        return parent;
+    }
+
+    @Override
+    public void setParent(TypeSolver parent) {
+        this.parent = parent;
+    }
+
+    @Override
+    public SymbolReference<ResolvedReferenceTypeDeclaration> tryToSolveType(String name) {
+        TypeDeclaration<?> type = types.get(name);
+        if (type == null) {
+            return SymbolReference.unsolved(ResolvedReferenceTypeDeclaration.class);
+        }
+        return SymbolReference.solved(JavaParserFacade.get(this).getTypeDeclaration(type));
+    }
+}
@@ -0,0 +1,65 @@
+package calculator;
+
+import com.github.javaparser.resolution.declarations.ResolvedReferenceTypeDeclaration;
+import com.github.javaparser.symbolsolver.model.resolution.SymbolReference;
+import com.github.javaparser.symbolsolver.model.resolution.TypeSolver;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.JarTypeSolver;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.ReflectionTypeSolver;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Solves external types through a {@link TypeIndex}.
+ * <p>
+ * A name that is not in the index is reported as unsolved right away, without a class loading attempt or an
+ * exception. A name that is in the index is solved by the source that declares it: JDK types by reflection,
+ * library types by a {@link JarTypeSolver} that is only opened the first time one of its types is asked for.
+ */
+public class IndexedTypeSolver implements TypeSolver {
+    private final TypeIndex index;
+    private final ReflectionTypeSolver jdk = new ReflectionTypeSolver();
+    private final Map<Integer, TypeSolver> jars = new HashMap<>();
+    private TypeSolver parent;
+
+    public IndexedTypeSolver(TypeIndex index) {
+        this.index = index;
+        jdk.setParent(this);
+    }
+
+    @Override
+    public TypeSolver getParent() {
+        return parent;
+    }
+
+    @Override
+    public void setParent(TypeSolver parent) {
+        this.parent = parent;
+    }
+
+    @Override
+    public SymbolReference<ResolvedReferenceTypeDeclaration> tryToSolveType(String name) {
+        int source = index.sourceOf(name);
+        if (source < 0) {
+            return SymbolReference.unsolved(ResolvedReferenceTypeDeclaration.class);
+        }
+        if (source == 0) {
+            return jdk.tryToSolveType(name);
+        }
+        TypeSolver jar = jars.computeIfAbsent(source, this::openJar);
+        return jar == null ? SymbolReference.unsolved(ResolvedReferenceTypeDeclaration.class) : jar.tryToSolveType(name);
+    }
+
+    // 開けなかった jar は以後も解決できないものとして扱う
+    private TypeSolver openJar(int source) {
+        try {
+            JarTypeSolver solver = new JarTypeSolver(Paths.get(index.source(source)));
+            solver.setParent(this);
+            return solver;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -9,13 +9,13 @@ import java.time.format.DateTimeFormatter;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.*;
-import java.util.regex.Pattern;
 
 public class LogFormatter extends Formatter {
 
-    private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+    private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.");
 
     private static final Map<Level, String> levelMsgMap = Collections.unmodifiableMap(
             new HashMap<Level, String>() {{
@@ -28,7 +28,11 @@ public class LogFormatter extends Formatter {
                 put(Level.FINEST, "FINE");
             }});
 
-    private AtomicInteger nameColumnWidth = new AtomicInteger(16);
+    // 列幅ごとに短縮したカテゴリ名を覚えておく (列幅が広がったら作り直す)
+    private final AtomicReference<Categories> categories = new AtomicReference<>(new Categories(16));
+
+    // 秒が変わったときだけ日時を書式化し直す
+    private volatile Second lastSecond = new Second(Long.MIN_VALUE, "");
 
 
     public static void applyToRoot() {
@@ -53,33 +57,26 @@ public class LogFormatter extends Formatter {
 
         StringBuilder sb = new StringBuilder(200);
 
-        Instant instant = Instant.ofEpochMilli(record.getMillis());
-        LocalDateTime ldt = LocalDateTime.ofInstant(instant, ZoneId.systemDefault());
-        sb.append(formatter.format(ldt));
+        appendTimestamp(sb, record.getMillis());
         sb.append(" ");
 
         sb.append(levelMsgMap.get(record.getLevel()));
         sb.append(" ");
 
-
+        Categories names = categories.get();
         String category;
         if (record.getSourceClassName() != null) {
-            category = record.getSourceClassName();
-            if (record.getSourceMethodName() != null) {
-                category += " " + record.getSourceMethodName();
-            }
+            category = names.get(record.getSourceClassName(), record.getSourceMethodName());
         } else {
-            category = record.getLoggerName();
+            category = names.get(record.getLoggerName(), null);
         }
-        int width = nameColumnWidth.intValue();
-        category = adjustLength(category, width);
         sb.append("[");
         sb.append(category);
         sb.append("] ");
 
-        if (category.length() > width) {
+        if (category.length() > names.width) {
             // grow in length.
-            nameColumnWidth.compareAndSet(width, category.length());
+            categories.compareAndSet(names, new Categories(category.length()));
         }
 
         sb.append(formatMessage(record));
@@ -100,27 +97,94 @@ public class LogFormatter extends Formatter {
     }
 
 
+    // "yyyy-MM-dd HH:mm:ss.SSS"
+    private void appendTimestamp(StringBuilder sb, long millis) {
+        long epochSecond = Math.floorDiv(millis, 1000);
+        Second second = lastSecond;
+        if (second.epochSecond != epochSecond) {
+            LocalDateTime ldt = LocalDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), ZoneId.systemDefault());
+            second = new Second(epochSecond, formatter.format(ldt));
+            lastSecond = second;
+        }
+        int milli = Math.floorMod(millis, 1000);
+        sb.append(second.text)
+                .append((char) ('0' + milli / 100))
+                .append((char) ('0' + milli / 10 % 10))
+                .append((char) ('0' + milli % 10));
+    }
+
+
     static String adjustLength(String packageName, int aimLength) {
 
         int overflowWidth = packageName.length() - aimLength;
 
-        String[] fragment = packageName.split(Pattern.quote("."));
-        for (int i = 0; i < fragment.length - 1; i++) {
-            if (fragment[i].length() > 1 && overflowWidth > 0) {
+        // split(".") と同じく末尾の空の断片は捨てる
+        int length = packageName.length();
+        while (length > 0 && packageName.charAt(length - 1) == '.') {
+            length--;
+        }
+        int lastDot = packageName.lastIndexOf('.', length - 1);
+
+        StringBuilder result = new StringBuilder(Math.max(length, aimLength));
+        int start = 0;
+        while (start <= lastDot) {
+            int end = packageName.indexOf('.', start);
+            int fragmentLength = end - start;
+            if (fragmentLength > 1 && overflowWidth > 0) {
 
-                int cutting = (fragment[i].length() - 1) - overflowWidth;
-                cutting = (cutting < 0) ? (fragment[i].length() - 1) : overflowWidth;
+                int cutting = (fragmentLength - 1) - overflowWidth;
+                cutting = (cutting < 0) ? (fragmentLength - 1) : overflowWidth;
 
-                fragment[i] = fragment[i].substring(0, fragment[i].length() - cutting);
+                fragmentLength -= cutting;
                 overflowWidth -= cutting;
             }
+            result.append(packageName, start, start + fragmentLength).append('.');
+            start = end + 1;
         }
+        result.append(packageName, start, length);
 
-        String result = String.join(".", fragment);
         while (result.length() < aimLength) {
-            result += " ";
+            result.append(' ');
         }
 
-        return result;
+        return result.toString();
+    }
+
+
+    private static class Second {
+        private final long epochSecond;
+        private final String text;
+
+        Second(long epochSecond, String text) {
+            this.epochSecond = epochSecond;
+            this.text = text;
+        }
+    }
+
+
+    // クラス名とメソッド名から、width に合わせて短縮したカテゴリ名
+    private static class Categories {
+        private final int width;
+        private final Map<String, Map<String, String>> names = new ConcurrentHashMap<>();
+
+        Categories(int width) {
+            this.width = width;
+        }
+
+        // 見つかったときはラムダも文字列も作らない
+        String get(String name, String method) {
+            String className = name == null ? "" : name;
+            String methodName = method == null ? "" : method;
+            Map<String, String> methods = names.get(className);
+            if (methods == null) {
+                methods = names.computeIfAbsent(className, k -> new ConcurrentHashMap<>());
+            }
+            String category = methods.get(methodName);
+            if (category == null) {
+                category = adjustLength(method == null ? className : className + " " + method, width);
+                methods.putIfAbsent(methodName, category);
+            }
+            return category;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,33 @@
+package calculator;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Admission control for the heap reserved by concurrently running projects, in megabytes.
+ * A reservation larger than the whole budget is shrunk to the budget so that it can still run alone.
+ */
+public class MemoryBudget {
+    private final long budgetMb;
+    private final Semaphore permits;
+
+    // budgetMb が 0 以下なら無制限
+    public MemoryBudget(long budgetMb) {
+        this.budgetMb = budgetMb;
+        this.permits = budgetMb > 0 ? new Semaphore((int) Math.min(budgetMb, Integer.MAX_VALUE), true) : null;
+    }
+
+    public long acquire(long megabytes) throws InterruptedException {
+        if (permits == null) {
+            return 0;
+        }
+        int reserved = (int) Math.min(megabytes, budgetMb);
+        permits.acquire(reserved);
+        return reserved;
+    }
+
+    public void release(long reserved) {
+        if (permits != null && reserved > 0) {
+            permits.release((int) reserved);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package calculator;
+
+/**
+ * Accumulates package degrees and internal edges in one pass and computes the Q value.
+ */
+public class Modularity {
+    private final long[] degrees;
+    private long edgeCount;
+    private long internalCount;
+
+    public Modularity(int packageCount) {
+        this.degrees = new long[packageCount];
+    }
+
+    public void add(int src, int dst) {
+        add(src, dst, 1);
+    }
+
+    // src が -1 (プロジェクト外のパッケージ) の辺は辺の総数にだけ数える
+    public void add(int src, int dst, long weight) {
+        edgeCount += weight;
+        if (src < 0) {
+            return;
+        }
+        if (src == dst) {
+            degrees[src] += weight;
+            internalCount += weight;
+        } else {
+            degrees[src] += weight;
+            degrees[dst] += weight;
+        }
+    }
+
+    public long getEdgeCount() {
+        return edgeCount;
+    }
+
+    public long getInternalCount() {
+        return internalCount;
+    }
+
+    public double value() {
+        double edgeCountSquared = (double) edgeCount * edgeCount;
+        double abTotal = 0;
+        for (long a_i : degrees) {
+            abTotal += ((double) a_i * a_i) / edgeCountSquared;
+        }
+        double e = ((double) internalCount) / edgeCount;
+        return (e - abTotal) / (1 - abTotal);
+    }
+}
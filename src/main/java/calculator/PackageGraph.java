@@ -0,0 +1,142 @@
+package calculator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Weighted package dependency graph of one project, stored in compressed sparse row form and read through a
+ * memory mapping.
+ * <p>
+ * The file holds the package names in {@link PackageIndex} order, then one row per source package: row 0 is for
+ * edges whose source is outside the project (source ID -1, which only count toward the edge total), row
+ * {@code i + 1} for package {@code i}. A row is a run of destination IDs in ascending order with the matching
+ * edge counts. Reading a graph gives back the same {@link EdgeCounts} the calculator computed, so Q values and
+ * other graph metrics can be recomputed without parsing the project again.
+ */
+public class PackageGraph {
+    public static final String SUFFIX = ".graph";
+
+    private static final int MAGIC = 0x51475231;
+    private static final int VERSION = 1;
+
+    private final PackageIndex packages;
+    private final ByteBuffer buffer;
+    private final int rowsStart;
+    private final int destinationsStart;
+    private final int countsStart;
+
+    private PackageGraph(PackageIndex packages, ByteBuffer buffer, int rowsStart, int pairCount) {
+        this.packages = packages;
+        this.buffer = buffer;
+        this.rowsStart = rowsStart;
+        this.destinationsStart = rowsStart + (packages.size() + 2) * Integer.BYTES;
+        this.countsStart = destinationsStart + pairCount * Integer.BYTES;
+    }
+
+    public static Path graphFile(Path outPath, String projectName) {
+        return outPath.resolve(projectName + SUFFIX);
+    }
+
+    public static void write(Path file, PackageIndex packageIndex, EdgeCounts edges) throws IOException {
+        // 送り元、送り先の順に並べる
+        List<long[]> pairs = new ArrayList<>(edges.pairCount());
+        edges.forEach((src, dst, count) -> pairs.add(new long[]{src, dst, count}));
+        pairs.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        int[] rows = new int[packageIndex.size() + 2];
+        for (long[] pair : pairs) {
+            rows[(int) pair[0] + 2]++;
+        }
+        for (int i = 1; i < rows.length; i++) {
+            rows[i] += rows[i - 1];
+        }
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(packageIndex.size());
+            for (String name : packageIndex.names()) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.writeInt(pairs.size());
+            for (int row : rows) {
+                out.writeInt(row);
+            }
+            for (long[] pair : pairs) {
+                out.writeInt((int) pair[1]);
+            }
+            for (long[] pair : pairs) {
+                out.writeInt((int) pair[2]);
+            }
+        }
+        Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static PackageGraph open(Path file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("not a package graph file: " + file);
+        }
+        String[] names = new String[buffer.getInt()];
+        for (int i = 0; i < names.length; i++) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            names[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        PackageIndex packages = new PackageIndex(Arrays.asList(names));
+        if (packages.size() != names.length) {
+            throw new IOException("duplicate package names in " + file);
+        }
+        int pairCount = buffer.getInt();
+        return new PackageGraph(packages, buffer, buffer.position(), pairCount);
+    }
+
+    public PackageIndex getPackages() {
+        return packages;
+    }
+
+    public int pairCount() {
+        return row(packages.size() + 1);
+    }
+
+    // 送り元が src (-1 はプロジェクト外) の辺
+    public void forEachFrom(int src, EdgeCounts.EdgeConsumer consumer) {
+        for (int i = row(src + 1); i < row(src + 2); i++) {
+            consumer.accept(src, buffer.getInt(destinationsStart + i * Integer.BYTES),
+                    buffer.getInt(countsStart + i * Integer.BYTES));
+        }
+    }
+
+    public void forEach(EdgeCounts.EdgeConsumer consumer) {
+        for (int src = -1; src < packages.size(); src++) {
+            forEachFrom(src, consumer);
+        }
+    }
+
+    public EdgeCounts edges() {
+        EdgeCounts edges = new EdgeCounts(pairCount());
+        forEach(edges::add);
+        return edges;
+    }
+
+    private int row(int i) {
+        return buffer.getInt(rowsStart + i * Integer.BYTES);
+    }
+}
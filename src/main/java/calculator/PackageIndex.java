@@ -0,0 +1,91 @@
+package calculator;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Interns the package names of a project to dense int IDs in sorted name order.
+ */
+public class PackageIndex {
+    private final String[] names;
+    private final Map<String, Integer> ids;
+
+    public PackageIndex(Collection<String> packages) {
+        this.names = packages.stream().distinct().sorted().toArray(String[]::new);
+        this.ids = new HashMap<>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            ids.put(names[i], i);
+        }
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public boolean contains(String packageName) {
+        return ids.containsKey(packageName);
+    }
+
+    // 未知のパッケージには -1 を返す
+    public int idOf(String packageName) {
+        Integer id = ids.get(packageName);
+        return id == null ? -1 : id;
+    }
+
+    public String nameOf(int id) {
+        return names[id];
+    }
+
+    // パッケージ階層の最大の深さ (a.b.c なら 3)
+    public int maxDepth() {
+        int max = 0;
+        for (String name : names) {
+            max = Math.max(max, depthOf(name));
+        }
+        return max;
+    }
+
+    // 各パッケージを先頭 depth 階層に切り詰めた索引 coarse での ID の表
+    public int[] truncate(int depth, PackageIndex coarse) {
+        int[] mapping = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            mapping[i] = coarse.idOf(truncate(names[i], depth));
+        }
+        return mapping;
+    }
+
+    public PackageIndex truncate(int depth) {
+        return new PackageIndex(Arrays.stream(names).map(name -> truncate(name, depth)).collect(Collectors.toList()));
+    }
+
+    static String truncate(String packageName, int depth) {
+        int end = -1;
+        for (int i = 0; i < depth; i++) {
+            end = packageName.indexOf('.', end + 1);
+            if (end < 0) {
+                return packageName;
+            }
+        }
+        return packageName.substring(0, end);
+    }
+
+    private static int depthOf(String packageName) {
+        if (packageName.isEmpty()) {
+            return 0;
+        }
+        int depth = 1;
+        for (int i = 0; i < packageName.length(); i++) {
+            if (packageName.charAt(i) == '.') {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    public String[] names() {
+        return Arrays.copyOf(names, names.length);
+    }
+}
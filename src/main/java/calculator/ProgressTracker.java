@@ -0,0 +1,93 @@
+package calculator;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Aggregates the progress reported by running projects into a dataset-wide throughput and ETA line,
+ * logged every {@code --progress_interval} seconds.
+ * The ETA is based on the file counts estimated by {@link ProjectJob} before the run started.
+ */
+public class ProgressTracker implements Closeable {
+    private final int totalProjects;
+    private final long totalFiles;
+    private final Map<ProjectJob, ProjectProgress> running = new ConcurrentHashMap<>();
+    private final Set<ProjectJob> completed = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger completedProjects = new AtomicInteger();
+    private final AtomicLong completedFiles = new AtomicLong();
+    private final AtomicLong completedEdges = new AtomicLong();
+    private final long startTime = System.nanoTime();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "progress-tracker");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Logger logger;
+
+    public ProgressTracker(List<ProjectJob> jobs, long intervalSeconds, Logger logger) {
+        this.totalProjects = jobs.size();
+        this.totalFiles = jobs.stream().mapToLong(job -> job.fileCount).sum();
+        this.logger = logger;
+        if (intervalSeconds > 0) {
+            scheduler.scheduleAtFixedRate(() -> logger.info(summary()), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    public void update(ProjectJob job, ProjectProgress progress) {
+        // 終わった後に遅れて届いた途中経過で、実行中に戻さない
+        if (completed.contains(job)) {
+            return;
+        }
+        running.put(job, progress);
+        if (completed.contains(job)) {
+            // complete() と入れ違いになった
+            running.remove(job);
+        }
+    }
+
+    public void complete(ProjectJob job) {
+        completed.add(job);
+        ProjectProgress last = running.remove(job);
+        completedProjects.incrementAndGet();
+        // 途中で落ちたプロジェクトも見積もったファイル数だけ終わったものとして数える
+        completedFiles.addAndGet(job.fileCount);
+        if (last != null) {
+            completedEdges.addAndGet(last.getEdges());
+        }
+    }
+
+    public String summary() {
+        long doneFiles = completedFiles.get();
+        long edges = completedEdges.get();
+        for (ProjectProgress progress : running.values()) {
+            doneFiles += progress.getFilesResolved();
+            edges += progress.getEdges();
+        }
+        double elapsed = (System.nanoTime() - startTime) / 1e9;
+        double filesPerSecond = elapsed > 0 ? doneFiles / elapsed : 0;
+        String eta = "--:--:--";
+        if (filesPerSecond > 0) {
+            long remaining = (long) (Math.max(totalFiles - doneFiles, 0) / filesPerSecond);
+            eta = String.format("%02d:%02d:%02d", remaining / 3600, remaining / 60 % 60, remaining % 60);
+        }
+        return String.format("progress: %d/%d projects done, %d running | files %d/%d (%.1f%%) | %.1f files/s | %d edges | ETA %s",
+                completedProjects.get(), totalProjects, running.size(),
+                doneFiles, totalFiles, totalFiles > 0 ? 100.0 * doneFiles / totalFiles : 100.0,
+                filesPerSecond, edges, eta);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        logger.info(summary());
+    }
+}
@@ -0,0 +1,41 @@
+package calculator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * A project scheduled by {@link DatasetPreprocessor}, with a cost estimate from its source files.
+ */
+public class ProjectJob {
+    public final String dataType;
+    public final File projectDir;
+    public final long fileCount;
+    public final long sourceBytes;
+
+    private ProjectJob(String dataType, File projectDir, long fileCount, long sourceBytes) {
+        this.dataType = dataType;
+        this.projectDir = projectDir;
+        this.fileCount = fileCount;
+        this.sourceBytes = sourceBytes;
+    }
+
+    // QCalculator が対象にするファイルと同じ条件で数える
+    public static ProjectJob estimate(String dataType, File projectDir) {
+        long fileCount = 0;
+        long sourceBytes = 0;
+        try {
+            for (Path path : new SourceDiscovery(projectDir.toPath(), 1).listFiles()) {
+                fileCount++;
+                sourceBytes += path.toFile().length();
+            }
+        } catch (IOException e) {
+            // 見積もれなければ最小のヒープで実行する
+        }
+        return new ProjectJob(dataType, projectDir, fileCount, sourceBytes);
+    }
+
+    public String getName() {
+        return projectDir.getName();
+    }
+}
@@ -0,0 +1,135 @@
+package calculator;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-phase wall/CPU time, file and byte counts and symbol resolution counts of one project.
+ * Counters are additive so that parallel workers can record into the same instance;
+ * CPU time is the sum over the threads that did the work.
+ */
+public class ProjectMetrics {
+    public enum Phase {
+        DISCOVER, READ, CACHE, PARSE, RESOLVE, SCAN, MODULARITY, TOTAL
+    }
+
+    public enum ResolveKind {
+        METHOD_CALL, FIELD_ACCESS, SUPERTYPE
+    }
+
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final LongAdder[] wallNanos = adders(Phase.values().length);
+    private final LongAdder[] cpuNanos = adders(Phase.values().length);
+    private final LongAdder[] resolveSuccess = adders(ResolveKind.values().length);
+    private final LongAdder[] resolveFailure = adders(ResolveKind.values().length);
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder parseFailures = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder externalSkips = new LongAdder();
+
+    public static long cpuTime() {
+        return threadMXBean.isCurrentThreadCpuTimeSupported() ? threadMXBean.getCurrentThreadCpuTime() : 0;
+    }
+
+    // wallStart と cpuStart は System.nanoTime() と cpuTime() で計った開始時刻
+    public void record(Phase phase, long wallStart, long cpuStart) {
+        wallNanos[phase.ordinal()].add(System.nanoTime() - wallStart);
+        cpuNanos[phase.ordinal()].add(cpuTime() - cpuStart);
+    }
+
+    public void read(long byteCount) {
+        files.increment();
+        bytes.add(byteCount);
+    }
+
+    public void parseFailed() {
+        parseFailures.increment();
+    }
+
+    public void cacheHit() {
+        cacheHits.increment();
+    }
+
+    // 型索引で外部の型のメンバと分かり、名前解決しなかった参照
+    public void externalSkipped() {
+        externalSkips.increment();
+    }
+
+    public void resolved(ResolveKind kind, boolean success) {
+        (success ? resolveSuccess : resolveFailure)[kind.ordinal()].increment();
+    }
+
+    public double getWallSeconds(Phase phase) {
+        return wallNanos[phase.ordinal()].sum() / 1e9;
+    }
+
+    public void write(Path file, String projectName, ProjectResult result, long typeCacheHits, long typeCacheMisses)
+            throws IOException {
+        mapper.writerWithDefaultPrettyPrinter().writeValue(file.toFile(),
+                toJson(projectName, result, typeCacheHits, typeCacheMisses));
+    }
+
+    public ObjectNode toJson(String projectName, ProjectResult result, long typeCacheHits, long typeCacheMisses) {
+        ObjectNode root = mapper.createObjectNode();
+        root.put("project", projectName);
+        root.put("status", result.getStatus());
+        root.put("q_value", result.getQValue());
+        if (!result.getQValues().isEmpty()) {
+            ObjectNode qValues = root.putObject("q_values");
+            result.getQValues().forEach(qValues::put);
+        }
+        ObjectNode wall = root.putObject("wall_seconds");
+        ObjectNode cpu = root.putObject("cpu_seconds");
+        for (Phase phase : Phase.values()) {
+            wall.put(name(phase), wallNanos[phase.ordinal()].sum() / 1e9);
+            cpu.put(name(phase), cpuNanos[phase.ordinal()].sum() / 1e9);
+        }
+        root.put("files", files.sum());
+        root.put("bytes", bytes.sum());
+        root.put("skipped_files", result.getSkippedFiles());
+        root.put("parse_failures", parseFailures.sum());
+        root.put("edge_cache_hits", cacheHits.sum());
+        root.put("external_skips", externalSkips.sum());
+        ObjectNode resolve = root.putObject("resolve");
+        for (ResolveKind kind : ResolveKind.values()) {
+            ObjectNode counts = resolve.putObject(name(kind));
+            counts.put("success", resolveSuccess[kind.ordinal()].sum());
+            counts.put("failure", resolveFailure[kind.ordinal()].sum());
+        }
+        ObjectNode typeCache = root.putObject("type_cache");
+        typeCache.put("hits", typeCacheHits);
+        typeCache.put("misses", typeCacheMisses);
+        return root;
+    }
+
+    // 強制終了したプロジェクトのレコード (計測値はない)
+    public static ObjectNode timeoutRecord(String projectName, long fileCount) {
+        return new ProjectMetrics().toJson(projectName, ProjectResult.timeout(fileCount), 0, 0);
+    }
+
+    public static Path metricsFile(Path outPath, String projectName) {
+        return outPath.resolve(projectName + ".metrics.json");
+    }
+
+    static String name(Enum<?> e) {
+        return e.name().toLowerCase(Locale.ROOT);
+    }
+
+    private static LongAdder[] adders(int n) {
+        LongAdder[] adders = new LongAdder[n];
+        for (int i = 0; i < n; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
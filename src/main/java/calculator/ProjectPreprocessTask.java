@@ -1,7 +1,10 @@
 package calculator;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.github.javaparser.JavaParser;
 import com.github.javaparser.symbolsolver.JavaSymbolSolver;
+import com.github.javaparser.symbolsolver.javaparsermodel.JavaParserFacade;
+import com.github.javaparser.symbolsolver.model.resolution.TypeSolver;
 import com.github.javaparser.symbolsolver.resolution.typesolvers.CombinedTypeSolver;
 import com.github.javaparser.symbolsolver.resolution.typesolvers.JavaParserTypeSolver;
 import com.github.javaparser.symbolsolver.resolution.typesolvers.ReflectionTypeSolver;
@@ -9,46 +12,155 @@ import com.github.javaparser.symbolsolver.resolution.typesolvers.ReflectionTypeS
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class ProjectPreprocessTask implements Runnable {
 
     private final File projectDir;
     private final Path outPath;
+    private final CommandLineValues values;
+    private final PrintStream out;
+    private final PrintStream err;
+    private final List<CachingTypeSolver> typeCaches = Collections.synchronizedList(new ArrayList<>());
+    private final ProjectProgress progress = new ProjectProgress();
+    private final ProjectMetrics metrics = new ProjectMetrics();
+    private Consumer<ProjectProgress> progressListener;
+    private Consumer<ObjectNode> resultListener;
 
-    public ProjectPreprocessTask(File projectDir, Path outPath) {
+    public ProjectPreprocessTask(File projectDir, Path outPath, CommandLineValues values) {
+        this(projectDir, outPath, values, System.out, System.err);
+    }
+
+    public ProjectPreprocessTask(File projectDir, Path outPath, CommandLineValues values,
+                                 PrintStream out, PrintStream err) {
         this.projectDir = projectDir;
         this.outPath = outPath;
+        this.values = values;
+        this.out = out;
+        this.err = err;
+    }
+
+    // 進捗を --progress_interval 秒ごとと、終了時に通知する
+    public void setProgressListener(Consumer<ProjectProgress> progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    // 設定すると結果とメトリクスをファイルに書かず、1 つのレコードとして渡す
+    public void setResultListener(Consumer<ObjectNode> resultListener) {
+        this.resultListener = resultListener;
     }
 
     @Override
     public void run() {
-        JavaParser parser = createParser(projectDir.toPath());
+        ScheduledExecutorService reporter = null;
+        if (progressListener != null && values.progressInterval > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "progress-reporter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reporter.scheduleAtFixedRate(() -> progressListener.accept(progress),
+                    values.progressInterval, values.progressInterval, TimeUnit.SECONDS);
+        }
         try {
 
             String projectName = projectDir.getName();
 
-            double qValue = new QCalculator(projectDir, outPath, parser).calculate();
-
-            File outFile = outPath.resolve(projectName + ".txt").toFile();
-            try (FileWriter fw = new FileWriter(outFile)) {
-                fw.write(Double.toString(qValue));
+            long wall = System.nanoTime();
+            long cpu = ProjectMetrics.cpuTime();
+            ProjectResult result = new QCalculator(
+                    projectDir,
+                    outPath,
+                    sourceRoots -> createParser(sourceRoots, values, typeCaches),
+                    values,
+                    progress,
+                    metrics
+            ).calculate();
+            metrics.record(ProjectMetrics.Phase.TOTAL, wall, cpu);
+            if (!ProjectResult.COMPLETE.equals(result.getStatus())) {
+                out.println(result.getStatus() + " result: skipped " + result.getSkippedFiles()
+                        + " of " + result.getFileCount() + " files");
             }
 
-            System.out.println("complete preprocessing " + projectDir);
+            long hits = typeCaches.stream().mapToLong(CachingTypeSolver::getHits).sum();
+            long misses = typeCaches.stream().mapToLong(CachingTypeSolver::getMisses).sum();
+            if (!typeCaches.isEmpty()) {
+                out.println("type cache hits: " + hits + ", misses: " + misses);
+            }
+            if (resultListener != null) {
+                resultListener.accept(metrics.toJson(projectName, result, hits, misses));
+            } else {
+                result.write(outPath, projectName);
+                metrics.write(ProjectMetrics.metricsFile(outPath, projectName), projectName, result, hits, misses);
+            }
+            out.println("complete preprocessing " + projectDir);
         } catch (Exception e) {
-            System.err.println("failed to process project: " + projectDir);
-            e.printStackTrace(System.err);
+            err.println("failed to process project: " + projectDir);
+            e.printStackTrace(err);
+        } finally {
+            if (reporter != null) {
+                reporter.shutdownNow();
+                // 実行中の途中経過の送信が、下の最終的な進捗より後に届かないように待つ
+                try {
+                    reporter.awaitTermination(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (progressListener != null) {
+                progressListener.accept(progress);
+            }
+            // JavaParserFacade は型ソルバごとのインスタンスを WeakHashMap に保持するが、
+            // 値が型ソルバを強参照しているため、同じ JVM で次のプロジェクトを処理する前に消す
+            synchronized (JavaParserFacade.class) {
+                JavaParserFacade.clearInstances();
+            }
         }
     }
 
 
-    private JavaParser createParser(Path projectDir) {
+    // ソースルートごとに型ソルバを作る。typeCaches には作った型キャッシュを追加する (ヒット率の集計用)
+    static JavaParser createParser(List<Path> sourceRoots, CommandLineValues values, List<CachingTypeSolver> typeCaches) {
+        List<TypeSolver> projectTypeSolvers = new ArrayList<>();
+        for (Path sourceRoot : sourceRoots) {
+            projectTypeSolvers.add(new JavaParserTypeSolver(sourceRoot));
+        }
+        return createParser(projectTypeSolvers, values, typeCaches);
+    }
+
+    // プロジェクトの型を解くソルバの後に、外部の型を解くソルバを足す
+    static JavaParser createParser(Collection<TypeSolver> projectTypeSolvers, CommandLineValues values,
+                                   List<CachingTypeSolver> typeCaches) {
         CombinedTypeSolver typeSolver = new CombinedTypeSolver();
-        typeSolver.add(new JavaParserTypeSolver(projectDir));
-        typeSolver.add(new ReflectionTypeSolver());
-        JavaSymbolSolver symbolSolver = new JavaSymbolSolver(typeSolver);
+        for (TypeSolver projectTypeSolver : projectTypeSolvers) {
+            typeSolver.add(projectTypeSolver);
+        }
+        if (values.typeIndex != null) {
+            // 外部の型は索引で引き、索引にない名前はクラスのロードを試さずに未解決とする
+            try {
+                typeSolver.add(new IndexedTypeSolver(TypeIndex.open(values.typeIndex, values.typeJarDirs())));
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to open the type index: " + values.typeIndex, e);
+            }
+        } else {
+            typeSolver.add(new ReflectionTypeSolver());
+        }
+        JavaSymbolSolver symbolSolver;
+        if (values.typeCacheSize > 0) {
+            CachingTypeSolver cachingTypeSolver = new CachingTypeSolver(typeSolver, values.typeCacheSize);
+            typeCaches.add(cachingTypeSolver);
+            symbolSolver = new JavaSymbolSolver(cachingTypeSolver);
+        } else {
+            symbolSolver = new JavaSymbolSolver(typeSolver);
+        }
         JavaParser parser = new JavaParser();
         parser.getParserConfiguration().setSymbolResolver(symbolSolver);
         return parser;
@@ -0,0 +1,52 @@
+package calculator;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running counters of one project's analysis, updated by {@link QCalculator} and polled by progress reporters.
+ */
+public class ProjectProgress {
+    private final AtomicLong filesDiscovered = new AtomicLong();
+    private final AtomicLong filesParsed = new AtomicLong();
+    private final AtomicLong filesResolved = new AtomicLong();
+    private final AtomicLong edges = new AtomicLong();
+
+    public ProjectProgress() {
+    }
+
+    public ProjectProgress(long filesDiscovered, long filesParsed, long filesResolved, long edges) {
+        this.filesDiscovered.set(filesDiscovered);
+        this.filesParsed.set(filesParsed);
+        this.filesResolved.set(filesResolved);
+        this.edges.set(edges);
+    }
+
+    public void discovered(long fileCount) {
+        filesDiscovered.set(fileCount);
+    }
+
+    public void parsed() {
+        filesParsed.incrementAndGet();
+    }
+
+    public void resolved(long edgeCount) {
+        filesResolved.incrementAndGet();
+        edges.addAndGet(edgeCount);
+    }
+
+    public long getFilesDiscovered() {
+        return filesDiscovered.get();
+    }
+
+    public long getFilesParsed() {
+        return filesParsed.get();
+    }
+
+    public long getFilesResolved() {
+        return filesResolved.get();
+    }
+
+    public long getEdges() {
+        return edges.get();
+    }
+}
@@ -0,0 +1,90 @@
+package calculator;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Q value of a project together with how completely the project was analysed.
+ * <p>
+ * The status is {@link #COMPLETE} when every file was analysed, {@link #PARTIAL} when some files ran out of
+ * their time budget and were skipped, and {@link #TIMEOUT} when the project's own budget ran out; in that case
+ * the Q value covers only the files analysed before the deadline, or is NaN if the process had to be killed.
+ * Additional Q values computed for the same project (for example by another engine) are kept by name.
+ */
+public class ProjectResult {
+    public static final String COMPLETE = "complete";
+    public static final String PARTIAL = "partial";
+    public static final String TIMEOUT = "timeout";
+
+    private double qValue = Double.NaN;
+    private String status = COMPLETE;
+    private long fileCount;
+    private long skippedFiles;
+    private final Map<String, Double> qValues = new LinkedHashMap<>();
+
+    public static ProjectResult timeout(long fileCount) {
+        ProjectResult result = new ProjectResult();
+        result.setStatus(TIMEOUT);
+        result.setFileCount(fileCount);
+        result.setSkippedFiles(fileCount);
+        return result;
+    }
+
+    public double getQValue() {
+        return qValue;
+    }
+
+    public void setQValue(double qValue) {
+        this.qValue = qValue;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public long getFileCount() {
+        return fileCount;
+    }
+
+    public void setFileCount(long fileCount) {
+        this.fileCount = fileCount;
+    }
+
+    public long getSkippedFiles() {
+        return skippedFiles;
+    }
+
+    public void setSkippedFiles(long skippedFiles) {
+        this.skippedFiles = skippedFiles;
+    }
+
+    public Map<String, Double> getQValues() {
+        return Collections.unmodifiableMap(qValues);
+    }
+
+    public void putQValue(String name, double qValue) {
+        qValues.put(name, qValue);
+    }
+
+    // 1 行目は従来どおり Q 値だけにして、collect.py などの既存の読み手と互換にする
+    public void write(Path outPath, String projectName) throws IOException {
+        try (FileWriter fw = new FileWriter(outPath.resolve(projectName + ".txt").toFile())) {
+            fw.write(Double.toString(qValue));
+            fw.write("\nstatus=" + status);
+            fw.write("\nfiles=" + fileCount);
+            fw.write("\nskipped_files=" + skippedFiles);
+            for (Map.Entry<String, Double> entry : qValues.entrySet()) {
+                fw.write("\nq." + entry.getKey() + "=" + entry.getValue());
+            }
+            fw.write("\n");
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package calculator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+
+/**
+ * Long-lived worker that processes the projects requested on stdin one after another,
+ * so that the JIT-compiled parser code stays warm across projects.
+ * The worker exits after {@code --worker_max_projects} projects or once its heap usage
+ * stays above {@code --worker_max_heap_ratio} of the maximum heap, and the parent starts a fresh one.
+ */
+public class ProjectWorker implements Runnable {
+
+    private final CommandLineValues values;
+
+    public ProjectWorker(CommandLineValues values) {
+        this.values = values;
+    }
+
+    @Override
+    public void run() {
+        BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in));
+        int processed = 0;
+        try {
+            String line;
+            while ((line = stdin.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                JsonNode request = WorkerProtocol.parseRequest(line);
+                String project = request.get("project").asText();
+                try {
+                    ProjectPreprocessTask task = new ProjectPreprocessTask(
+                            Paths.get(project).toFile(),
+                            Paths.get(request.get("output_dir").asText()),
+                            values
+                    );
+                    if (values.progressEvents) {
+                        task.setProgressListener(progress -> System.out.println(WorkerProtocol.progress(project, progress)));
+                    }
+                    if (values.resultEvents) {
+                        task.setResultListener(record -> System.out.println(WorkerProtocol.result(record)));
+                    }
+                    task.run();
+                } catch (Throwable e) {
+                    System.err.println("failed to process project: " + project);
+                    e.printStackTrace(System.err);
+                }
+                processed++;
+
+                long heapUsed = heapUsed();
+                boolean recycle = processed >= values.workerMaxProjects || heapUsed > heapLimit();
+                if (recycle && processed < values.workerMaxProjects) {
+                    // ゴミが残っているだけかもしれないので、GC してから判断する
+                    System.gc();
+                    heapUsed = heapUsed();
+                    recycle = heapUsed > heapLimit();
+                }
+                System.out.println(WorkerProtocol.done(project, heapUsed, recycle));
+                System.out.flush();
+                if (recycle) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long heapUsed() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private long heapLimit() {
+        return (long) (Runtime.getRuntime().maxMemory() * values.workerMaxHeapRatio);
+    }
+}
@@ -2,15 +2,19 @@ package calculator;
 
 import com.github.javaparser.JavaParser;
 import com.github.javaparser.ParseProblemException;
+import com.github.javaparser.ParseStart;
+import com.github.javaparser.Provider;
 import com.github.javaparser.ast.CompilationUnit;
 import com.github.javaparser.ast.Node;
 import com.github.javaparser.ast.PackageDeclaration;
 import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
 import com.github.javaparser.ast.body.MethodDeclaration;
 import com.github.javaparser.ast.body.VariableDeclarator;
+import com.github.javaparser.ast.expr.Expression;
 import com.github.javaparser.ast.expr.FieldAccessExpr;
 import com.github.javaparser.ast.expr.MethodCallExpr;
 import com.github.javaparser.ast.expr.Name;
+import com.github.javaparser.ast.expr.NameExpr;
 import com.github.javaparser.ast.type.ClassOrInterfaceType;
 import com.github.javaparser.ast.visitor.VoidVisitorAdapter;
 import com.github.javaparser.resolution.declarations.ResolvedMethodDeclaration;
@@ -21,91 +25,344 @@ import com.github.javaparser.symbolsolver.javaparsermodel.declarations.JavaParse
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class QCalculator {
+    /**
+     * How package edges are extracted: {@code PRECISE} resolves every call and field access with the symbol solver,
+     * {@code IMPORTS} uses {@link ImportEdgeExtractor} without building an AST, and {@code COMPARE} runs both,
+     * reporting the precise Q value and recording the approximate one next to it.
+     */
+    public enum Engine {
+        PRECISE, IMPORTS, COMPARE
+    }
+
     private final File projectDir;
     private final Path outPath;
-    private final JavaParser parser;
+    // JavaParser と型ソルバはスレッドセーフではないので、ワーカースレッドごとに用意する
+    private final ThreadLocal<JavaParser> parsers;
+    private final SourceLoader sourceLoader;
+    private final int numThreads;
+    private final boolean useEdgeCache;
+    private final boolean saveGraph;
+    private final Engine engine;
+    private final IntFunction<SortedSet<Integer>> depths;
+    private final Path typeIndexFile;
+    private final List<Path> typeJarDirs;
+    private final long fileTimeoutNanos;
+    private final long projectTimeoutNanos;
+    private final long graceNanos;
+    private final ProjectProgress progress;
+    private final ProjectMetrics metrics;
+
+    private final AtomicLong skippedFiles = new AtomicLong();
+    private volatile SourceDiscovery.Sources sources;
+    private volatile ExternalTypes externalTypes;
+    private volatile long projectDeadline = Long.MAX_VALUE;
 
-    public QCalculator(File projectDir, Path outPath, JavaParser parser) {
+    public QCalculator(File projectDir, Path outPath, Function<List<Path>, JavaParser> parserFactory,
+                       CommandLineValues values, ProjectProgress progress, ProjectMetrics metrics) {
         this.projectDir = projectDir;
         this.outPath = outPath;
-        this.parser = parser;
+        this.parsers = ThreadLocal.withInitial(() -> parserFactory.apply(sources.getSourceRoots()));
+        this.sourceLoader = new SourceLoader(values.sourceCharset());
+        this.numThreads = values.numThreads;
+        this.useEdgeCache = values.edgeCache;
+        this.saveGraph = values.saveGraph;
+        this.engine = values.engine;
+        this.depths = values::depths;
+        this.typeIndexFile = values.typeIndex;
+        this.typeJarDirs = values.typeJarDirs();
+        this.fileTimeoutNanos = TimeUnit.SECONDS.toNanos(values.fileTimeout);
+        this.projectTimeoutNanos = TimeUnit.SECONDS.toNanos(values.projectTimeout);
+        this.graceNanos = TimeUnit.SECONDS.toNanos(values.hardProjectTimeoutSeconds() - values.projectTimeout);
+        this.progress = progress;
+        this.metrics = metrics;
+    }
+
+    public ProjectResult calculate() throws IOException {
+        try {
+            return calculateOnce();
+        } finally {
+            // 呼び出し元のスレッドは次のプロジェクトでも使われるので、パーサと型ソルバを持ち続けないように外す
+            // (ワーカースレッドは EdgePipeline の実行ごとに終わる)
+            releaseParser();
+        }
+    }
+
+    // 呼び出し元のスレッドのパーサを捨てる。fileEdges() を使い終わったら呼ぶ
+    void releaseParser() {
+        parsers.remove();
     }
 
-    public double calculate() throws IOException {
+    private ProjectResult calculateOnce() throws IOException {
+        if (projectTimeoutNanos > 0) {
+            projectDeadline = System.nanoTime() + projectTimeoutNanos;
+        }
+        long wall = System.nanoTime();
+        long cpu = ProjectMetrics.cpuTime();
         List<Path> targetPaths = listPaths();
-        Set<String> allPackages = new HashSet<>();
-        for (Path path : targetPaths) {
-            path = projectDir.toPath().relativize(path);
-            String packageName = path.getParent().toString().replace("/", ".");
-            allPackages.add(packageName);
+        metrics.record(ProjectMetrics.Phase.DISCOVER, wall, cpu);
+        progress.discovered(targetPaths.size());
+        PackageIndex packageIndex = packageIndex(targetPaths);
+
+        ProjectResult result = new ProjectResult();
+        EdgeCounts edges;
+        if (engine == Engine.IMPORTS) {
+            edges = collectEdges(targetPaths, packageIndex, importExtractor(targetPaths, packageIndex));
+        } else {
+            edges = collectEdges(targetPaths, packageIndex, null);
+        }
+        boolean timedOut = System.nanoTime() > projectDeadline;
+        // 時間切れなら比較しない。比較の持ち時間は別に取るが、親プロセスが子を止める時刻 (猶予込み) より
+        // 十分前に打ち切り、本来の結果を送る前に止められないようにする
+        if (engine == Engine.COMPARE && !timedOut) {
+            long deadline = projectTimeoutNanos > 0
+                    ? Math.min(System.nanoTime() + projectTimeoutNanos, projectDeadline + graceNanos / 2) : Long.MAX_VALUE;
+            EdgeCounts importEdges = compareEdges(targetPaths, importExtractor(targetPaths, packageIndex), deadline);
+            if (importEdges != null) {
+                Modularity modularity = new Modularity(packageIndex.size());
+                importEdges.forEach(modularity::add);
+                result.putQValue(ProjectMetrics.name(Engine.IMPORTS), modularity.value());
+            }
+        }
+        result.setQValue(qValue(edges, packageIndex));
+        if (saveGraph) {
+            // 後から --graphs でパースし直さずに指標を計算できるように残す
+            PackageGraph.write(PackageGraph.graphFile(outPath, projectDir.getName()), packageIndex, edges);
         }
-        allPackages = Collections.unmodifiableSet(allPackages);
 
-        // 全ての辺を抽出
-        List<Edge> edges = new ArrayList<>();
-        for (Path path : targetPaths) {
-            CompilationUnit cu = parse(path);
-            if (cu == null) {
+        // 同じ辺から、パッケージを浅い階層に切り詰めた Q 値も計算する
+        for (int depth : depths.apply(packageIndex.maxDepth())) {
+            PackageIndex coarse = packageIndex.truncate(depth);
+            if (coarse.size() < 2) {
+                // 全てのパッケージが 1 つにまとまると Q 値は定義できない (0/0) ので記録しない
                 continue;
             }
-            var visitor = new EdgeCollectorVisitor(allPackages);
-            visitor.visit(cu, null);
-            edges.addAll(visitor.getEdges());
-        }
-
-        // Q値の計算
-        int edgeCount = edges.size();
-        List<Double> aSums = new ArrayList<>();
-        for (String i : allPackages) {
-            Map<String, Integer> count = edges.stream()
-                    .filter(e -> e.contains(i))
-                    .map(e -> e.getCounterPart(i))
-                    .collect(Collectors.toMap(n -> n, n -> 1, Integer::sum));
-            int aSum = 0;
-            for (String j : allPackages) {
-                if (count.containsKey(j)) {
-                    aSum += count.get(j);
-                }
+            int[] mapping = packageIndex.truncate(depth, coarse);
+            EdgeCounts coarseEdges = new EdgeCounts();
+            edges.forEach((src, dst, count) -> coarseEdges.add(src < 0 ? src : mapping[src], mapping[dst], count));
+            result.putQValue("depth." + depth, qValue(coarseEdges, coarse));
+        }
+
+        result.setFileCount(targetPaths.size());
+        result.setSkippedFiles(skippedFiles.get());
+        if (timedOut) {
+            result.setStatus(ProjectResult.TIMEOUT);
+        } else if (skippedFiles.get() > 0) {
+            result.setStatus(ProjectResult.PARTIAL);
+        }
+        return result;
+    }
+
+    long getSkippedFiles() {
+        return skippedFiles.get();
+    }
+
+    // listPaths() で見つけたファイルの package 宣言
+    String packageOf(Path path) {
+        return sources.packageOf(path);
+    }
+
+    PackageIndex packageIndex(List<Path> targetPaths) {
+        return new PackageIndex(targetPaths.stream().map(this::packageOf).collect(Collectors.toSet()));
+    }
+
+    ImportEdgeExtractor importExtractor(List<Path> targetPaths, PackageIndex packageIndex) {
+        return new ImportEdgeExtractor(packageIndex, typesByPackage(targetPaths));
+    }
+
+    // 型名はファイル名から取る (1 ファイル 1 トップレベル型とみなす)
+    private Map<String, Set<String>> typesByPackage(List<Path> targetPaths) {
+        Map<String, Set<String>> typesByPackage = new HashMap<>();
+        for (Path path : targetPaths) {
+            String fileName = path.getFileName().toString();
+            typesByPackage.computeIfAbsent(packageOf(path), k -> new HashSet<>())
+                    .add(fileName.substring(0, fileName.length() - ".java".length()));
+        }
+        return typesByPackage;
+    }
+
+    // 1 ファイル分の辺。extractor が null なら型ソルバで名前解決する
+    EdgeCounts fileEdges(Path path, PackageIndex packageIndex, ImportEdgeExtractor extractor) {
+        return collectEdges(path, packageIndex, null, extractor);
+    }
+
+    // extractor が null なら型ソルバで名前解決して辺を集める
+    private EdgeCounts collectEdges(List<Path> targetPaths, PackageIndex packageIndex, ImportEdgeExtractor extractor)
+            throws IOException {
+        // 全ての辺を抽出 (キャッシュがあれば変更のないファイルはパースしない)
+        EdgeCache edgeCache = null;
+        if (useEdgeCache) {
+            edgeCache = EdgeCache.load(edgeCacheFile(extractor != null), packageIndex);
+        }
+        EdgeCounts edges = collectEdges(targetPaths, packageIndex, edgeCache, extractor);
+        if (edgeCache != null) {
+            edgeCache.save();
+        }
+        return edges;
+    }
+
+    // 比較用の辺。本来の集計とは別に持ち時間を取り、進捗や計測値、飛ばしたファイルの数には数えない。
+    // 持ち時間を使い切ったら null (一部のファイルだけの Q 値とは比べられないため)
+    private EdgeCounts compareEdges(List<Path> targetPaths, ImportEdgeExtractor extractor, long deadline) {
+        AtomicBoolean expired = new AtomicBoolean();
+        Function<Path, EdgeCounts> scan = path -> {
+            if (System.nanoTime() > deadline) {
+                expired.set(true);
+                return new EdgeCounts();
+            }
+            try {
+                return extractor.extract(sourceLoader.load(path).chars());
+            } catch (IOException e) {
+                return new EdgeCounts();
+            }
+        };
+        EdgeCounts edges;
+        if (numThreads <= 1) {
+            edges = new EdgeCounts();
+            for (Path path : targetPaths) {
+                edges.addAll(scan.apply(path));
             }
-            aSums.add((double) aSum);
+        } else {
+            edges = new EdgePipeline(numThreads).run(targetPaths, scan);
         }
-        double abTotal = aSums.stream()
-                .map(a_i -> (a_i * a_i) / (edgeCount * edgeCount))
-                .reduce(Double::sum).get();
+        return expired.get() ? null : edges;
+    }
+
+    // Q値の計算
+    private double qValue(EdgeCounts edges, PackageIndex packageIndex) {
+        long wall = System.nanoTime();
+        long cpu = ProjectMetrics.cpuTime();
+        Modularity modularity = new Modularity(packageIndex.size());
+        edges.forEach(modularity::add);
+        double qValue = modularity.value();
+        metrics.record(ProjectMetrics.Phase.MODULARITY, wall, cpu);
+        return qValue;
+    }
 
-        Map<String, Integer> internalCount = edges.stream()
-                .filter(Edge::isInternal)
-                .map(e -> e.node1)
-                .collect(Collectors.toMap(n -> n, n -> 1, Integer::sum));
-        int eSum = 0;
-        for (String i : allPackages) {
-            eSum += internalCount.getOrDefault(i, 0);
+    // ファイルごとの辺はその場で合計に足し込み、AST や辺のリストを溜め込まない。
+    // 辺の数は整数で数えるので、並列に集計しても逐次と同じ結果になる
+    private EdgeCounts collectEdges(List<Path> targetPaths, PackageIndex packageIndex, EdgeCache edgeCache,
+                                    ImportEdgeExtractor extractor) {
+        if (numThreads <= 1) {
+            EdgeCounts edges = new EdgeCounts();
+            for (Path path : targetPaths) {
+                edges.addAll(collectEdges(path, packageIndex, edgeCache, extractor));
+            }
+            return edges;
         }
-        double e = ((double) eSum) / edgeCount;
-        return (e - abTotal) / (1 - abTotal);
+
+        return new EdgePipeline(numThreads)
+                .run(targetPaths, path -> collectEdges(path, packageIndex, edgeCache, extractor));
     }
 
+    private EdgeCounts collectEdges(Path path, PackageIndex packageIndex, EdgeCache edgeCache,
+                                    ImportEdgeExtractor extractor) {
+        // プロジェクトの持ち時間を使い切ったら残りのファイルは読まずに飛ばす
+        long start = System.nanoTime();
+        if (start > projectDeadline) {
+            skippedFiles.incrementAndGet();
+            return new EdgeCounts();
+        }
 
-    private CompilationUnit parse(Path path) {
         // ソースコードを読み込む
-        String code;
+        long cpu = ProjectMetrics.cpuTime();
+        SourceLoader.Source source;
         try {
-            code = new String(Files.readAllBytes(path));
+            source = sourceLoader.load(path);
         } catch (IOException e) {
             // ファイルを読めない場合は存在しないものとして扱う
+            return new EdgeCounts();
+        }
+        metrics.read(source.byteLength());
+        metrics.record(ProjectMetrics.Phase.READ, start, cpu);
+
+        String cacheKey = null;
+        byte[] hash = null;
+        if (edgeCache != null) {
+            long wall = System.nanoTime();
+            cpu = ProjectMetrics.cpuTime();
+            cacheKey = projectDir.toPath().relativize(path).toString();
+            hash = EdgeCache.sha256(source.bytes());
+            EdgeCounts cached = edgeCache.get(cacheKey, hash);
+            metrics.record(ProjectMetrics.Phase.CACHE, wall, cpu);
+            if (cached != null) {
+                metrics.cacheHit();
+                progress.parsed();
+                progress.resolved(cached.edgeCount());
+                return cached;
+            }
+        }
+
+        EdgeCounts edges;
+        if (extractor != null) {
+            // AST を作らずに字句だけを見て辺を数える
+            long wall = System.nanoTime();
+            cpu = ProjectMetrics.cpuTime();
+            edges = extractor.extract(source.chars());
+            metrics.record(ProjectMetrics.Phase.SCAN, wall, cpu);
+            progress.parsed();
+        } else {
+            edges = resolveEdges(parsers.get(), source, packageIndex, start);
+            if (edges == null) {
+                // 時間切れのファイルは途中までの辺も使わない
+                skippedFiles.incrementAndGet();
+                return new EdgeCounts();
+            }
+        }
+        progress.resolved(edges.edgeCount());
+        if (edgeCache != null) {
+            edgeCache.put(cacheKey, hash, edges);
+        }
+        return edges;
+    }
+
+    // ファイルの持ち時間を使い切った場合は null を返す
+    private EdgeCounts resolveEdges(JavaParser parser, SourceLoader.Source source, PackageIndex packageIndex,
+                                    long start) {
+        long wall = System.nanoTime();
+        long cpu = ProjectMetrics.cpuTime();
+        CompilationUnit cu = parse(parser, source.provider());
+        metrics.record(ProjectMetrics.Phase.PARSE, wall, cpu);
+        progress.parsed();
+        if (cu == null) {
+            metrics.parseFailed();
+            return new EdgeCounts();
+        }
+        long deadline = fileTimeoutNanos > 0 ? Math.min(start + fileTimeoutNanos, projectDeadline) : projectDeadline;
+        var visitor = new EdgeCollectorVisitor(packageIndex, deadline, metrics, externalTypes);
+        wall = System.nanoTime();
+        cpu = ProjectMetrics.cpuTime();
+        try {
+            visitor.visit(cu, null);
+        } catch (DeadlineExceededException e) {
             return null;
+        } finally {
+            metrics.record(ProjectMetrics.Phase.RESOLVE, wall, cpu);
         }
+        return visitor.getEdges();
+    }
 
+    // エンジンごとに辺が違うので、キャッシュも別のファイルにする
+    private Path edgeCacheFile(boolean imports) {
+        String suffix = imports ? ".imports.bin" : ".bin";
+        return outPath.resolve(".edge_cache").resolve(projectDir.getName() + suffix);
+    }
+
+    // ベンチマークからも使う
+    static CompilationUnit parse(JavaParser parser, Provider provider) {
         // パースして AST を構築する
         CompilationUnit cu;
         try {
-            Optional<CompilationUnit> result = parser.parse(code).getResult();
+            Optional<CompilationUnit> result = parser.parse(ParseStart.COMPILATION_UNIT, provider).getResult();
             if (result.isEmpty()) {
                 return null;
             }
@@ -118,53 +375,59 @@ public class QCalculator {
         return cu;
     }
 
-    private List<Path> listPaths() throws IOException {
-        return Files.walk(projectDir.toPath())
-                .filter(path -> path.toString().endsWith(".java"))
-                .filter(path -> !path.getFileName().toString().contains("Test"))
-                .collect(Collectors.toList());
+    // ソースルートも記録し、以後のパーサはそれを使って作る
+    List<Path> listPaths() throws IOException {
+        sources = new SourceDiscovery(projectDir.toPath(), numThreads).discover();
+        if (typeIndexFile != null) {
+            externalTypes = new ExternalTypes(TypeIndex.open(typeIndexFile, typeJarDirs),
+                    typesByPackage(sources.getFiles()));
+        }
+        return sources.getFiles();
     }
 
-    private static class Edge {
-        public final String node1;
-        public final String node2;
+    private static class DeadlineExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
 
-        public Edge(String node1, String node2) {
-            this.node1 = node1;
-            this.node2 = node2;
+        public DeadlineExceededException() {
+            super(null, null, false, false);
         }
+    }
 
-        public boolean contains(String node) {
-            return node1.equals(node) || node2.equals(node);
-        }
+    static class EdgeCollectorVisitor extends VoidVisitorAdapter<Object> {
+        private final EdgeCounts edges = new EdgeCounts();
+        private final PackageIndex allPackages;
+        private final long deadline;
+        private final ProjectMetrics metrics;
+        private final ExternalTypes externalTypes;
+        private ExternalTypes.FileScope fileScope;
+        private String sourcePackage;
+        private int sourceId;
 
-        public String getCounterPart(String node) {
-            if (node.equals(node1)) {
-                return node2;
-            } else if (node.equals(node2)) {
-                return node1;
-            } else {
-                return null;
-            }
+        public EdgeCollectorVisitor(PackageIndex allPackages, long deadline, ProjectMetrics metrics) {
+            this(allPackages, deadline, metrics, null);
         }
 
-        public boolean isInternal() {
-            return node1.equals(node2);
+        // externalTypes が null なら全ての呼び出しを名前解決する
+        public EdgeCollectorVisitor(PackageIndex allPackages, long deadline, ProjectMetrics metrics,
+                                    ExternalTypes externalTypes) {
+            this.allPackages = allPackages;
+            this.deadline = deadline;
+            this.metrics = metrics;
+            this.externalTypes = externalTypes;
         }
-    }
 
-    private static class EdgeCollectorVisitor extends VoidVisitorAdapter<Object> {
-        private final List<String> packageCalls = new ArrayList<>();
-        private final Set<String> allPackages;
-        private String sourcePackage;
-
-        public EdgeCollectorVisitor(Set<String> allPackages) {
-            this.allPackages = allPackages;
+        @Override
+        public void visit(CompilationUnit n, Object arg) {
+            if (externalTypes != null) {
+                fileScope = externalTypes.scopeOf(n);
+            }
+            super.visit(n, arg);
         }
 
         @Override
         public void visit(PackageDeclaration n, Object arg) {
             this.sourcePackage = n.getNameAsString();
+            this.sourceId = allPackages.idOf(sourcePackage);
         }
 
         @Override
@@ -174,17 +437,17 @@ public class QCalculator {
             parentTypes.addAll(n.getExtendedTypes());
             parentTypes.addAll(n.getImplementedTypes());
             for (ClassOrInterfaceType parentType : parentTypes) {
+                checkDeadline();
                 ResolvedReferenceType resolvedType;
                 try {
                     resolvedType = parentType.resolve();
                 } catch (Exception | StackOverflowError e) {
+                    metrics.resolved(ProjectMetrics.ResolveKind.SUPERTYPE, false);
                     continue;
                 }
+                metrics.resolved(ProjectMetrics.ResolveKind.SUPERTYPE, true);
                 resolvedType.getTypeDeclaration().ifPresent(t -> {
-                  String packageName = t.getPackageName();
-                  if (allPackages.contains(packageName)) {
-                      packageCalls.add(packageName);
-                  }
+                  addPackageCall(t.getPackageName());
                 });
             }
         }
@@ -202,42 +465,73 @@ public class QCalculator {
         }
 
         private void addPackageCallNode(Node n) {
+            checkDeadline();
+            if (hasExternalScope(n)) {
+                // JDK やライブラリの型のメンバは辺にならないので、解決しない
+                metrics.externalSkipped();
+                return;
+            }
             if (n instanceof MethodCallExpr) {
                 try {
                     ResolvedMethodDeclaration m = ((MethodCallExpr) n).resolve();
+                    metrics.resolved(ProjectMetrics.ResolveKind.METHOD_CALL, true);
                     if (m instanceof JavaParserMethodDeclaration) {
                         MethodDeclaration methodDecl = m.toAst().get();
-                        String packageName = m.getPackageName();
-                        if (allPackages.contains(packageName)) {
-                            packageCalls.add(packageName);
-                        }
+                        addPackageCall(m.getPackageName());
                     }
                 } catch (Exception | StackOverflowError e) {
+                    metrics.resolved(ProjectMetrics.ResolveKind.METHOD_CALL, false);
 //                    System.out.println(e.getMessage());
                 }
             } else if (n instanceof FieldAccessExpr) {
                 try {
                     ResolvedValueDeclaration d = ((FieldAccessExpr) n).resolve();
+                    metrics.resolved(ProjectMetrics.ResolveKind.FIELD_ACCESS, true);
                     if (d instanceof JavaParserFieldDeclaration) {
                         VariableDeclarator varDecl = ((JavaParserFieldDeclaration) d).getVariableDeclarator();
-                        String packageName = ((JavaParserFieldDeclaration) d).declaringType().getPackageName();
-                        if (allPackages.contains(packageName)) {
-                            packageCalls.add(packageName);
-                        }
+                        addPackageCall(((JavaParserFieldDeclaration) d).declaringType().getPackageName());
                     }
                 } catch (Exception | StackOverflowError e) {
+                    metrics.resolved(ProjectMetrics.ResolveKind.FIELD_ACCESS, false);
 //                    System.out.println(e.getMessage());
                 }
             }
         }
 
-        public List<Edge> getEdges() {
+        // System.out.println(...) のように、左端が外部の型の名前になっている呼び出しやフィールド参照か
+        private boolean hasExternalScope(Node n) {
+            if (fileScope == null) {
+                return false;
+            }
+            Expression scope = n instanceof MethodCallExpr
+                    ? ((MethodCallExpr) n).getScope().orElse(null)
+                    : ((FieldAccessExpr) n).getScope();
+            while (scope instanceof FieldAccessExpr) {
+                scope = ((FieldAccessExpr) scope).getScope();
+            }
+            return scope instanceof NameExpr && fileScope.isExternal(((NameExpr) scope).getNameAsString());
+        }
+
+        // 名前解決の前に確認する (解決中の例外は握りつぶされるので、その中では投げられない)
+        private void checkDeadline() {
+            if (System.nanoTime() > deadline) {
+                throw new DeadlineExceededException();
+            }
+        }
+
+        // パッケージ宣言は型宣言より先に訪問されるので、ここでは送り元が確定している
+        private void addPackageCall(String packageName) {
             if (sourcePackage == null) {
-                return Collections.emptyList();
+                return;
+            }
+            int dst = allPackages.idOf(packageName);
+            if (dst >= 0) {
+                edges.add(sourceId, dst);
             }
-            return packageCalls.stream()
-                    .map(dst -> new Edge(sourcePackage, dst))
-                    .collect(Collectors.toList());
+        }
+
+        public EdgeCounts getEdges() {
+            return edges;
         }
     }
 }
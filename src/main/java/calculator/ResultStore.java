@@ -0,0 +1,123 @@
+package calculator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Append-only JSON Lines file holding one record per project of a dataset run.
+ * <p>
+ * A record is the project's metrics (Q values, status, timings and counts) plus its {@code data_type}.
+ * Only the dataset process writes to the store; each record is appended with a single write and forced to disk,
+ * so a crash can leave at most one incomplete last line, which is cut off when the store is opened again.
+ * Projects that already have a record are skipped when a run is resumed with the same output directory.
+ */
+public class ResultStore implements Closeable {
+    public static final String FILE_NAME = "results.jsonl";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final FileChannel channel;
+    private final Map<String, JsonNode> records = new LinkedHashMap<>();
+
+    private ResultStore(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    public static ResultStore open(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        ResultStore store = new ResultStore(channel);
+        long validLength = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JsonNode record;
+                try {
+                    record = mapper.readTree(line);
+                } catch (IOException e) {
+                    // 書き込み途中で落ちた最後の行
+                    break;
+                }
+                validLength += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                if (record != null) {
+                    store.records.put(key(record), record);
+                }
+            }
+        }
+        if (validLength > channel.size()) {
+            // 最後のレコードは完全だが改行だけが書けていない
+            channel.position(channel.size());
+            channel.write(ByteBuffer.wrap(new byte[]{'\n'}));
+        } else {
+            channel.truncate(validLength);
+            channel.position(validLength);
+        }
+        return store;
+    }
+
+    // 既存のレコードをファイルの順に読む (書き込み用には開かない)
+    public static List<JsonNode> read(Path file) throws IOException {
+        List<JsonNode> records = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    JsonNode record = mapper.readTree(line);
+                    if (record != null) {
+                        records.add(record);
+                    }
+                } catch (IOException e) {
+                    break;
+                }
+            }
+        }
+        return records;
+    }
+
+    public static String key(String dataType, String projectName) {
+        return dataType + "/" + projectName;
+    }
+
+    public static String key(JsonNode record) {
+        return key(record.path("data_type").asText(), record.path("project").asText());
+    }
+
+    public synchronized boolean contains(String dataType, String projectName) {
+        return records.containsKey(key(dataType, projectName));
+    }
+
+    // 同じプロジェクトのレコードが既にあれば後のものが優先される
+    public synchronized Collection<JsonNode> records() {
+        return new ArrayList<>(records.values());
+    }
+
+    public synchronized void append(String dataType, JsonNode projectRecord) throws IOException {
+        ObjectNode record = mapper.createObjectNode();
+        record.put("data_type", dataType);
+        record.setAll((ObjectNode) projectRecord);
+        ByteBuffer line = ByteBuffer.wrap((mapper.writeValueAsString(record) + "\n").getBytes(StandardCharsets.UTF_8));
+        while (line.hasRemaining()) {
+            channel.write(line);
+        }
+        channel.force(false);
+        records.put(key(record), record);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,145 @@
+package calculator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Combines the output directories of a sharded dataset run into one result set.
+ * <p>
+ * Every subdirectory of the input that holds a {@link ShardPlan#MANIFEST} is one shard's output. The records of
+ * the shards' {@link ResultStore}s are combined into one store in the output directory, and the dataset metrics
+ * are computed again over the merged records. {@code merge_report.json} lists shards that are missing or were
+ * run with a different plan, projects of the plan that have no result, and projects whose result was found in
+ * more than one shard (the first shard in directory name order wins).
+ */
+public class ShardMerger implements Runnable {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final Path shardsDir;
+    private final Path outputDir;
+
+    public ShardMerger(CommandLineValues values) {
+        this.shardsDir = values.merge;
+        this.outputDir = values.outputDir;
+    }
+
+    @Override
+    public void run() {
+        try {
+            merge();
+        } catch (IOException e) {
+            System.err.println("failed to merge shards: " + shardsDir);
+            e.printStackTrace();
+        }
+    }
+
+    private void merge() throws IOException {
+        List<Path> shardDirs;
+        try (Stream<Path> paths = Files.list(shardsDir)) {
+            shardDirs = paths.filter(path -> Files.exists(path.resolve(ShardPlan.MANIFEST)))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        if (shardDirs.isEmpty()) {
+            System.err.println("no shard manifests found in " + shardsDir);
+            return;
+        }
+
+        // 最初のマニフェストの割り当てを基準にして、他のシャードも同じ計画で実行されたか確かめる
+        JsonNode plan = ShardPlan.readManifest(shardDirs.get(0).resolve(ShardPlan.MANIFEST));
+        int shardCount = plan.path("shards").asInt();
+        JsonNode planProjects = plan.path("projects");
+        ObjectNode report = mapper.createObjectNode();
+        ArrayNode inconsistent = report.putArray("inconsistent_manifests");
+        ArrayNode duplicateShards = report.putArray("duplicate_shards");
+        Set<Integer> foundShards = new TreeSet<>();
+        List<Path> mergedDirs = new ArrayList<>();
+        for (Path shardDir : shardDirs) {
+            JsonNode manifest = ShardPlan.readManifest(shardDir.resolve(ShardPlan.MANIFEST));
+            if (manifest.path("shards").asInt() != shardCount || !manifest.path("projects").equals(planProjects)) {
+                inconsistent.add(shardDir.toString());
+                continue;
+            }
+            if (!foundShards.add(manifest.path("shard").asInt())) {
+                duplicateShards.add(shardDir.toString());
+            }
+            mergedDirs.add(shardDir);
+        }
+        ArrayNode missingShards = report.putArray("missing_shards");
+        for (int shard = 0; shard < shardCount; shard++) {
+            if (!foundShards.contains(shard)) {
+                missingShards.add(shard);
+            }
+        }
+
+        Set<String> planned = new LinkedHashSet<>();
+        for (JsonNode project : planProjects) {
+            planned.add(ResultStore.key(project.path("data_type").asText(), project.path("project").asText()));
+        }
+
+        // 各シャードのレコードを 1 つのストアにまとめる。同じプロジェクトは最初のシャードのものを使う
+        Map<String, JsonNode> merged = new LinkedHashMap<>();
+        ArrayNode duplicateProjects = report.putArray("duplicate_projects");
+        ArrayNode unexpectedProjects = report.putArray("unexpected_projects");
+        Files.createDirectories(outputDir);
+        Path storeFile = outputDir.resolve(ResultStore.FILE_NAME);
+        Files.deleteIfExists(storeFile);
+        try (ResultStore store = ResultStore.open(storeFile)) {
+            for (Path shardDir : mergedDirs) {
+                Path shardStore = shardDir.resolve(ResultStore.FILE_NAME);
+                if (!Files.exists(shardStore)) {
+                    continue;
+                }
+                // 再開した実行では同じプロジェクトが後から書き直されていることがあるので、シャード内では後を優先する
+                Map<String, JsonNode> records = new LinkedHashMap<>();
+                for (JsonNode record : ResultStore.read(shardStore)) {
+                    records.put(ResultStore.key(record), record);
+                }
+                for (Map.Entry<String, JsonNode> entry : records.entrySet()) {
+                    String key = entry.getKey();
+                    if (!planned.contains(key)) {
+                        unexpectedProjects.add(key);
+                    }
+                    if (merged.containsKey(key)) {
+                        duplicateProjects.add(key);
+                        continue;
+                    }
+                    merged.put(key, entry.getValue());
+                    ObjectNode record = entry.getValue().deepCopy();
+                    String dataType = record.remove("data_type").asText();
+                    store.append(dataType, record);
+                }
+            }
+        }
+
+        ArrayNode missingProjects = report.putArray("missing_projects");
+        DatasetMetrics metrics = new DatasetMetrics();
+        for (String key : planned) {
+            JsonNode record = merged.get(key);
+            if (record == null) {
+                missingProjects.add(key);
+                metrics.missing();
+            } else {
+                metrics.add(record.path("data_type").asText(), record);
+            }
+        }
+        report.put("shards", shardCount);
+        report.put("projects", planned.size());
+        report.put("merged_projects", merged.size());
+
+        metrics.write(outputDir.resolve("dataset_metrics.json"));
+        mapper.writerWithDefaultPrettyPrinter().writeValue(outputDir.resolve("merge_report.json").toFile(), report);
+        System.out.println("merged " + merged.size() + " of " + planned.size() + " projects from "
+                + mergedDirs.size() + " shards: " + missingShards.size() + " missing shards, "
+                + missingProjects.size() + " missing projects, " + duplicateProjects.size() + " duplicates");
+    }
+}
@@ -0,0 +1,103 @@
+package calculator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits the projects of a dataset into {@code count} shards so that several machines can each process one.
+ * <p>
+ * Every node computes the same plan on its own: the jobs, already sorted largest first with ties broken by
+ * data type and name, are assigned greedily to the shard with the fewest estimated source bytes so far
+ * (the lowest index wins ties). Nodes must therefore see the same dataset tree. The complete plan is written
+ * to each shard's manifest so that {@link ShardMerger} can tell which projects are missing from a merged result.
+ */
+public class ShardPlan {
+    public static final String MANIFEST = "shard_manifest.json";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final int index;
+    private final int count;
+
+    public ShardPlan(int index, int count) {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("invalid shard: " + index + "/" + count);
+        }
+        this.index = index;
+        this.count = count;
+    }
+
+    // "i/n" の形式 (i は 0 から n-1)
+    public static ShardPlan parse(String spec) {
+        String[] parts = spec.trim().split("/");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("invalid shard: " + spec);
+        }
+        return new ShardPlan(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    // jobs の順に、それまでの合計サイズが一番小さいシャードへ割り当てる
+    public int[] assign(List<ProjectJob> jobs) {
+        long[] shardBytes = new long[count];
+        int[] shards = new int[jobs.size()];
+        for (int i = 0; i < jobs.size(); i++) {
+            int smallest = 0;
+            for (int shard = 1; shard < count; shard++) {
+                if (shardBytes[shard] < shardBytes[smallest]) {
+                    smallest = shard;
+                }
+            }
+            shards[i] = smallest;
+            // 空のプロジェクトばかりが同じシャードに偏らないよう、最低 1 バイトとして数える
+            shardBytes[smallest] += Math.max(jobs.get(i).sourceBytes, 1);
+        }
+        return shards;
+    }
+
+    public List<ProjectJob> select(List<ProjectJob> jobs) {
+        int[] shards = assign(jobs);
+        List<ProjectJob> selected = new ArrayList<>();
+        for (int i = 0; i < jobs.size(); i++) {
+            if (shards[i] == index) {
+                selected.add(jobs.get(i));
+            }
+        }
+        return selected;
+    }
+
+    public void writeManifest(Path file, List<ProjectJob> jobs) throws IOException {
+        int[] shards = assign(jobs);
+        ObjectNode root = mapper.createObjectNode();
+        root.put("shard", index);
+        root.put("shards", count);
+        ArrayNode projects = root.putArray("projects");
+        for (int i = 0; i < jobs.size(); i++) {
+            ProjectJob job = jobs.get(i);
+            ObjectNode project = projects.addObject();
+            project.put("data_type", job.dataType);
+            project.put("project", job.getName());
+            project.put("shard", shards[i]);
+            project.put("source_bytes", job.sourceBytes);
+        }
+        mapper.writerWithDefaultPrettyPrinter().writeValue(file.toFile(), root);
+    }
+
+    public static JsonNode readManifest(Path file) throws IOException {
+        return mapper.readTree(file.toFile());
+    }
+}
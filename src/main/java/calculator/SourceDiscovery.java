@@ -0,0 +1,333 @@
+package calculator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+
+/**
+ * Finds the source files of a project and the source roots they belong to.
+ * <p>
+ * The walk never descends into VCS metadata or dependency directories (see {@link #IGNORED}), and directories
+ * are listed in parallel on large trees. A directory named like build output (see {@link #BUILD_OUTPUT}) is only
+ * dropped when it sits at the project root or next to a build file, and even then its files are kept if their
+ * package puts the directory inside a source root, so packages such as {@code org.example.build} survive.
+ * <p>
+ * A file's package is taken from its {@code package} declaration, skipping the annotations of
+ * {@code package-info.java}; its source root is the directory above the package path, so Maven and Gradle layouts
+ * such as {@code src/main/java} are found without knowing the build tool. Files whose directory does not match
+ * their declared package contribute no source root.
+ */
+public class SourceDiscovery {
+    public static final Set<String> IGNORED = Set.of(
+            ".git", ".hg", ".svn", ".idea", ".gradle", ".mvn", "node_modules");
+    public static final Set<String> BUILD_OUTPUT = Set.of("target", "build", "out");
+
+    private static final List<String> BUILD_FILES = List.of("pom.xml", "build.gradle", "build.gradle.kts", "build.xml");
+
+    // package 宣言を探すのはファイルの先頭だけ (ライセンスのコメントが長くても収まる大きさ)
+    private static final int HEADER_BYTES = 16 * 1024;
+
+    private final Path projectDir;
+    private final int parallelism;
+
+    public SourceDiscovery(Path projectDir, int parallelism) {
+        this.projectDir = projectDir;
+        this.parallelism = Math.max(parallelism, 1);
+    }
+
+    public static boolean isSource(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(".java") && !name.contains("Test");
+    }
+
+    private static boolean isIgnored(Path dir) {
+        String name = dir.getFileName().toString();
+        // .edge_cache などの隠しディレクトリも含む
+        return IGNORED.contains(name) || name.startsWith(".");
+    }
+
+    // ビルドツールの出力先らしいディレクトリ (プロジェクト直下か、ビルドファイルの隣にあるもの)
+    private boolean isBuildOutput(Path dir) {
+        if (!BUILD_OUTPUT.contains(dir.getFileName().toString())) {
+            return false;
+        }
+        Path parent = dir.getParent();
+        return parent.equals(projectDir) || BUILD_FILES.stream().anyMatch(name -> Files.isRegularFile(parent.resolve(name)));
+    }
+
+    // 対象のファイルをパス順に返す
+    public List<Path> listFiles() throws IOException {
+        Map<Path, Path> outputDirs = new HashMap<>();
+        List<Path> files = walk(outputDirs);
+        Map<Path, String> packages = declaredPackages(new ArrayList<>(outputDirs.keySet()));
+        dropBuildOutput(files, outputDirs, packages);
+        return files;
+    }
+
+    public Sources discover() throws IOException {
+        Map<Path, Path> outputDirs = new HashMap<>();
+        List<Path> files = walk(outputDirs);
+        Map<Path, String> packages = declaredPackages(files);
+        dropBuildOutput(files, outputDirs, packages);
+        packages.keySet().retainAll(new HashSet<>(files));
+        Set<Path> sourceRoots = new TreeSet<>();
+        for (Path file : files) {
+            Path root = sourceRoot(file.getParent(), packages.get(file));
+            if (root != null) {
+                sourceRoots.add(root);
+            }
+        }
+        if (sourceRoots.isEmpty()) {
+            sourceRoots.add(projectDir);
+        }
+        return new Sources(files, packages, new ArrayList<>(sourceRoots));
+    }
+
+    // outputDirs には、出力先らしいディレクトリの下にあったファイルとそのディレクトリ (一番外側) が入る
+    private List<Path> walk(Map<Path, Path> outputDirs) throws IOException {
+        Map<Path, Path> found = new ConcurrentHashMap<>();
+        WalkTask walk = new WalkTask(this, projectDir, null, found);
+        List<Path> files = parallelism == 1 ? walk.compute() : inPool(walk::compute);
+        outputDirs.putAll(found);
+        Collections.sort(files);
+        return files;
+    }
+
+    private Map<Path, String> declaredPackages(List<Path> files) throws IOException {
+        return parallelism == 1
+                ? files.stream().collect(Collectors.toMap(file -> file, SourceDiscovery::declaredPackage))
+                : inPool(() -> files.parallelStream().collect(Collectors.toMap(file -> file, SourceDiscovery::declaredPackage)));
+    }
+
+    // 出力先らしいディレクトリの下のファイルは、package 宣言からそのディレクトリがソースルートの中にあると分かるときだけ残す
+    // (org.example.build のようなパッケージのディレクトリをビルド出力と取り違えないため)
+    private static void dropBuildOutput(List<Path> files, Map<Path, Path> outputDirs, Map<Path, String> packages) {
+        if (outputDirs.isEmpty()) {
+            return;
+        }
+        files.removeIf(file -> {
+            Path outputDir = outputDirs.get(file);
+            if (outputDir == null) {
+                return false;
+            }
+            Path root = sourceRoot(file.getParent(), packages.get(file));
+            return root == null || !outputDir.startsWith(root) || outputDir.equals(root);
+        });
+    }
+
+    // dir が package に対応するディレクトリで終わっていれば、その上のディレクトリ
+    private static Path sourceRoot(Path dir, String packageName) {
+        if (packageName.isEmpty()) {
+            return dir;
+        }
+        String[] components = packageName.split("\\.");
+        Path root = dir;
+        for (int i = components.length - 1; i >= 0; i--) {
+            if (root == null || root.getFileName() == null || !root.getFileName().toString().equals(components[i])) {
+                return null;
+            }
+            root = root.getParent();
+        }
+        return root;
+    }
+
+    // package 宣言のパッケージ名。宣言がなければ無名パッケージ ("")
+    static String declaredPackage(Path file) {
+        byte[] header = new byte[HEADER_BYTES];
+        int length = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while (length < header.length && (n = in.read(header, length, header.length - length)) > 0) {
+                length += n;
+            }
+        } catch (IOException e) {
+            return "";
+        }
+        String code = new String(header, 0, length, StandardCharsets.UTF_8);
+        int pos = 0;
+        while (pos < code.length()) {
+            char c = code.charAt(pos);
+            if (Character.isWhitespace(c) || c == '\uFEFF') {
+                pos++;
+            } else if (code.startsWith("//", pos)) {
+                int end = code.indexOf('\n', pos);
+                pos = end < 0 ? code.length() : end + 1;
+            } else if (code.startsWith("/*", pos)) {
+                int end = code.indexOf("*/", pos + 2);
+                pos = end < 0 ? code.length() : end + 2;
+            } else if (code.startsWith("package", pos) && pos + 7 < code.length()
+                    && !Character.isJavaIdentifierPart(code.charAt(pos + 7))) {
+                int end = code.indexOf(';', pos);
+                if (end < 0) {
+                    return "";
+                }
+                // 名前の途中のコメントや空白は取り除く
+                return code.substring(pos + 7, end).replaceAll("/\\*.*?\\*/|\\s+", "");
+            } else if (c == '@' && !code.startsWith("interface", skipBlank(code, pos + 1))) {
+                // package-info.java では package 宣言の前にアノテーションが付く
+                pos = skipAnnotation(code, pos);
+            } else {
+                // import や型宣言が先に来たら無名パッケージ
+                return "";
+            }
+        }
+        return "";
+    }
+
+    // @Name や @a.b.Name(...) を読み飛ばした位置
+    private static int skipAnnotation(String code, int pos) {
+        pos = skipBlank(code, pos + 1);
+        while (true) {
+            while (pos < code.length() && Character.isJavaIdentifierPart(code.charAt(pos))) {
+                pos++;
+            }
+            pos = skipBlank(code, pos);
+            if (pos >= code.length() || code.charAt(pos) != '.') {
+                break;
+            }
+            pos = skipBlank(code, pos + 1);
+        }
+        if (pos >= code.length() || code.charAt(pos) != '(') {
+            return pos;
+        }
+        // 括弧の対応を取る (文字列や文字リテラルの中の括弧は数えない)
+        int depth = 0;
+        while (pos < code.length()) {
+            char c = code.charAt(pos);
+            if (c == '"' || c == '\'') {
+                pos++;
+                while (pos < code.length() && code.charAt(pos) != c) {
+                    pos += code.charAt(pos) == '\\' ? 2 : 1;
+                }
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return pos + 1;
+            }
+            pos++;
+        }
+        return pos;
+    }
+
+    // 空白とコメントを読み飛ばした位置
+    private static int skipBlank(String code, int pos) {
+        while (pos < code.length()) {
+            if (Character.isWhitespace(code.charAt(pos))) {
+                pos++;
+            } else if (code.startsWith("//", pos)) {
+                int end = code.indexOf('\n', pos);
+                pos = end < 0 ? code.length() : end + 1;
+            } else if (code.startsWith("/*", pos)) {
+                int end = code.indexOf("*/", pos + 2);
+                pos = end < 0 ? code.length() : end + 2;
+            } else {
+                break;
+            }
+        }
+        return pos;
+    }
+
+    private <T> T inPool(Callable<T> task) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while discovering sources", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("failed to discover sources", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // ディレクトリごとに分割して、サブディレクトリを並列に列挙する
+    private static class WalkTask extends RecursiveTask<List<Path>> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient SourceDiscovery discovery;
+        private final transient Path dir;
+        // dir を含む出力先らしいディレクトリ (なければ null)
+        private final transient Path outputDir;
+        private final transient Map<Path, Path> outputDirs;
+
+        WalkTask(SourceDiscovery discovery, Path dir, Path outputDir, Map<Path, Path> outputDirs) {
+            this.discovery = discovery;
+            this.dir = dir;
+            this.outputDir = outputDir;
+            this.outputDirs = outputDirs;
+        }
+
+        @Override
+        protected List<Path> compute() {
+            List<Path> files = new ArrayList<>();
+            List<WalkTask> subtasks = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isDirectory()) {
+                        if (!isIgnored(entry)) {
+                            Path entryOutputDir = outputDir == null && discovery.isBuildOutput(entry) ? entry : outputDir;
+                            subtasks.add(new WalkTask(discovery, entry, entryOutputDir, outputDirs));
+                        }
+                    } else if (attributes.isRegularFile() && isSource(entry)) {
+                        files.add(entry);
+                        if (outputDir != null) {
+                            outputDirs.put(entry, outputDir);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // 読めないディレクトリは飛ばす
+            }
+            if (getPool() == null) {
+                for (WalkTask subtask : subtasks) {
+                    files.addAll(subtask.compute());
+                }
+            } else {
+                invokeAll(subtasks);
+                for (WalkTask subtask : subtasks) {
+                    files.addAll(subtask.join());
+                }
+            }
+            return files;
+        }
+    }
+
+    /**
+     * Result of {@link #discover()}: the source files, the declared package of each file and the source roots.
+     */
+    public static class Sources {
+        private final List<Path> files;
+        private final Map<Path, String> packages;
+        private final List<Path> sourceRoots;
+
+        Sources(List<Path> files, Map<Path, String> packages, List<Path> sourceRoots) {
+            this.files = files;
+            this.packages = packages;
+            this.sourceRoots = sourceRoots;
+        }
+
+        public List<Path> getFiles() {
+            return files;
+        }
+
+        public String packageOf(Path file) {
+            return packages.getOrDefault(file, "");
+        }
+
+        public List<Path> getSourceRoots() {
+            return sourceRoots;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package calculator;
+
+import com.github.javaparser.Provider;
+import com.github.javaparser.Providers;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads source files into reusable per-thread buffers and decodes them with one explicit charset.
+ * <p>
+ * Files are read through a {@link FileChannel} into a byte buffer that each thread keeps and grows as needed;
+ * files above {@link #MAP_THRESHOLD} are memory-mapped instead, so one huge generated file does not pin a huge
+ * buffer for the rest of the run. Text is decoded lazily into a reused char buffer: for UTF-8, US-ASCII and
+ * ISO-8859-1, leading ASCII bytes are widened directly and the charset decoder only takes over at the first
+ * non-ASCII byte. Malformed input is replaced, as {@code new String(bytes, charset)} does.
+ * <p>
+ * A {@link Source} belongs to the thread that loaded it and is only valid until that thread loads the next file.
+ */
+public class SourceLoader {
+    // これより大きいファイルはプールのバッファに読まずにメモリマップする
+    static final int MAP_THRESHOLD = 1 << 20;
+
+    private final Charset charset;
+    private final boolean asciiCompatible;
+    private final ThreadLocal<Source> sources;
+
+    public SourceLoader(Charset charset) {
+        this.charset = charset;
+        this.asciiCompatible = charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)
+                || charset.equals(StandardCharsets.ISO_8859_1);
+        this.sources = ThreadLocal.withInitial(Source::new);
+    }
+
+    public Source load(Path file) throws IOException {
+        Source source = sources.get();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > MAP_THRESHOLD) {
+                source.reset(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+                return source;
+            }
+            ByteBuffer buffer = source.byteBuffer((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // 読み切るまで続ける
+            }
+            buffer.flip();
+            source.reset(buffer);
+        }
+        return source;
+    }
+
+    // 既にメモリ上にある内容を同じ方法で扱う (ベンチマーク用)
+    public Source wrap(byte[] bytes) {
+        Source source = sources.get();
+        source.reset(ByteBuffer.wrap(bytes));
+        return source;
+    }
+
+    /**
+     * The raw bytes of one file and, once asked for, its decoded text.
+     */
+    public class Source {
+        private ByteBuffer pooledBytes = ByteBuffer.allocate(64 * 1024);
+        private CharBuffer pooledChars = CharBuffer.allocate(64 * 1024);
+        private final CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private ByteBuffer bytes;
+        private CharBuffer chars;
+
+        private ByteBuffer byteBuffer(int size) {
+            if (pooledBytes.capacity() < size) {
+                pooledBytes = ByteBuffer.allocate(Integer.highestOneBit(size - 1) << 1);
+            }
+            pooledBytes.clear().limit(size);
+            return pooledBytes;
+        }
+
+        private void reset(ByteBuffer bytes) {
+            this.bytes = bytes;
+            this.chars = null;
+        }
+
+        public int byteLength() {
+            return bytes.remaining();
+        }
+
+        // 読み取り専用の view (位置を動かしても内容には影響しない)
+        public ByteBuffer bytes() {
+            return bytes.asReadOnlyBuffer();
+        }
+
+        public CharBuffer chars() {
+            if (chars == null) {
+                chars = decode();
+            }
+            return chars.duplicate();
+        }
+
+        // パーサには文字列にせずそのまま読ませる
+        public Provider provider() {
+            return Providers.provider(new CharBufferReader(chars()));
+        }
+
+        private CharBuffer decode() {
+            int maxChars = (int) Math.ceil(bytes.remaining() * (double) decoder.maxCharsPerByte());
+            CharBuffer out;
+            if (maxChars > MAP_THRESHOLD) {
+                // 大きいファイルの文字列はプールに残さない
+                out = CharBuffer.allocate(maxChars);
+            } else {
+                if (pooledChars.capacity() < maxChars) {
+                    pooledChars = CharBuffer.allocate(Integer.highestOneBit(maxChars - 1) << 1);
+                }
+                out = pooledChars;
+                out.clear();
+            }
+
+            ByteBuffer in = bytes.duplicate();
+            if (asciiCompatible) {
+                // ASCII の間は 1 バイトがそのまま 1 文字になる
+                int i = in.position();
+                int limit = in.limit();
+                if (in.hasArray() && out.hasArray()) {
+                    byte[] src = in.array();
+                    char[] dst = out.array();
+                    int offset = in.arrayOffset();
+                    int start = i;
+                    int dstOffset = out.arrayOffset() - start;
+                    while (i < limit && src[offset + i] >= 0) {
+                        dst[dstOffset + i] = (char) src[offset + i];
+                        i++;
+                    }
+                    out.position(i - start);
+                } else {
+                    while (i < limit && in.get(i) >= 0) {
+                        out.put((char) in.get(i));
+                        i++;
+                    }
+                }
+                in.position(i);
+            }
+            if (in.hasRemaining()) {
+                decoder.reset();
+                decoder.decode(in, out, true);
+                decoder.flush(out);
+            }
+            out.flip();
+            return out;
+        }
+    }
+
+    // CharBuffer の内容をコピーせずに読む Reader
+    private static class CharBufferReader extends Reader {
+        private final CharBuffer chars;
+
+        CharBufferReader(CharBuffer chars) {
+            this.chars = chars;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (!chars.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, chars.remaining());
+            chars.get(cbuf, off, n);
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
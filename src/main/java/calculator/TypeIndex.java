@@ -0,0 +1,275 @@
+package calculator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Sorted, memory-mapped table of the fully qualified names of external types: the {@code java.*} and
+ * {@code javax.*} types of the running JDK, followed by the types in the jars of the configured directories.
+ * <p>
+ * The table is built once into a single file and mapped read-only by every process of a dataset run, so
+ * looking up a name is a binary search over shared pages instead of a class loading attempt. Each name records
+ * the source it was found in (0 is the JDK, then one entry per jar); when two sources declare the same name the
+ * first one wins, in the same order the type solvers are consulted.
+ * The file carries a fingerprint of the JDK version and the jars' paths, sizes and modification times,
+ * and is rebuilt when it no longer matches.
+ */
+public class TypeIndex {
+    public static final String JDK = "jrt";
+
+    private static final int MAGIC = 0x51544931;
+    private static final int VERSION = 1;
+
+    // 同じ JVM の中では一度だけ開く
+    private static final Map<Path, TypeIndex> opened = new HashMap<>();
+
+    private final List<String> sources;
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int offsetsStart;
+    private final int sourcesStart;
+    private final int namesStart;
+
+    private TypeIndex(List<String> sources, ByteBuffer buffer, int count, int tableStart) {
+        this.sources = sources;
+        this.buffer = buffer;
+        this.count = count;
+        // 名前 i のバイト列は offsets[i] から offsets[i + 1] まで
+        this.offsetsStart = tableStart;
+        this.sourcesStart = offsetsStart + (count + 1) * Integer.BYTES;
+        this.namesStart = sourcesStart + count * Integer.BYTES;
+    }
+
+    public static synchronized TypeIndex open(Path file, List<Path> jarDirs) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        TypeIndex index = opened.get(key);
+        if (index != null) {
+            return index;
+        }
+        List<Path> jars = listJars(jarDirs);
+        byte[] fingerprint = fingerprint(jars);
+        index = Files.exists(key) ? map(key, fingerprint) : null;
+        if (index == null) {
+            build(key, fingerprint, jars);
+            index = map(key, fingerprint);
+            if (index == null) {
+                throw new IOException("failed to read the type index just written: " + key);
+            }
+        }
+        opened.put(key, index);
+        return index;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // 見つからなければ -1
+    public int sourceOf(String qualifiedName) {
+        byte[] name = qualifiedName.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareAt(mid, name);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return buffer.getInt(sourcesStart + mid * Integer.BYTES);
+            }
+        }
+        return -1;
+    }
+
+    public boolean contains(String qualifiedName) {
+        return sourceOf(qualifiedName) >= 0;
+    }
+
+    // JDK なら "jrt"、それ以外は jar のパス
+    public String source(int source) {
+        return sources.get(source);
+    }
+
+    // 絶対位置でしか読まないので、複数のスレッドから同時に引いてよい
+    private int compareAt(int i, byte[] name) {
+        int start = namesStart + buffer.getInt(offsetsStart + i * Integer.BYTES);
+        int end = namesStart + buffer.getInt(offsetsStart + (i + 1) * Integer.BYTES);
+        int length = Math.min(end - start, name.length);
+        for (int k = 0; k < length; k++) {
+            int cmp = Integer.compare(buffer.get(start + k) & 0xff, name[k] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(end - start, name.length);
+    }
+
+    // 形式が違うか指紋が合わなければ null
+    private static TypeIndex map(Path file, byte[] fingerprint) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            byte[] stored = new byte[buffer.getInt()];
+            buffer.get(stored);
+            if (!Arrays.equals(stored, fingerprint)) {
+                return null;
+            }
+            int sourceCount = buffer.getInt();
+            List<String> sources = new ArrayList<>(sourceCount);
+            for (int i = 0; i < sourceCount; i++) {
+                byte[] source = new byte[buffer.getInt()];
+                buffer.get(source);
+                sources.add(new String(source, StandardCharsets.UTF_8));
+            }
+            int count = buffer.getInt();
+            return new TypeIndex(sources, buffer, count, buffer.position());
+        } catch (RuntimeException e) {
+            // 途中で切れたファイルは作り直す
+            return null;
+        }
+    }
+
+    private static void build(Path file, byte[] fingerprint, List<Path> jars) throws IOException {
+        List<String> sources = new ArrayList<>();
+        // 先に見つかったソースを優先する
+        SortedMap<String, Integer> names = new TreeMap<>(TypeIndex::compareUtf8);
+        sources.add(JDK);
+        for (String name : jdkTypes()) {
+            names.putIfAbsent(name, 0);
+        }
+        for (Path jar : jars) {
+            int source = sources.size();
+            sources.add(jar.toString());
+            try (JarFile jarFile = new JarFile(jar.toFile())) {
+                for (JarEntry entry : Collections.list(jarFile.entries())) {
+                    // マルチリリース jar のバージョン別のクラスは基本のクラスと同じ名前なので見ない
+                    if (!entry.getName().startsWith("META-INF/")) {
+                        String name = typeName(entry.getName());
+                        if (name != null) {
+                            names.putIfAbsent(name, source);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // 読めない jar は空として扱う
+            }
+        }
+
+        Files.createDirectories(file.getParent());
+        // 複数のプロセスが同時に作っても互いの書きかけを壊さないように、一時ファイルは別々にする
+        Path tmpFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeBytes(out, fingerprint);
+            out.writeInt(sources.size());
+            for (String source : sources) {
+                writeBytes(out, source.getBytes(StandardCharsets.UTF_8));
+            }
+            out.writeInt(names.size());
+            List<byte[]> encoded = names.keySet().stream()
+                    .map(name -> name.getBytes(StandardCharsets.UTF_8))
+                    .collect(Collectors.toList());
+            int offset = 0;
+            for (byte[] name : encoded) {
+                out.writeInt(offset);
+                offset += name.length;
+            }
+            out.writeInt(offset);
+            for (int source : names.values()) {
+                out.writeInt(source);
+            }
+            for (byte[] name : encoded) {
+                out.write(name);
+            }
+        }
+        Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // ReflectionTypeSolver が JRE の型として扱うのは java.* と javax.* だけ
+    private static List<String> jdkTypes() throws IOException {
+        FileSystem jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> modules = Files.newDirectoryStream(jrt.getPath("/modules"))) {
+            for (Path module : modules) {
+                try (Stream<Path> files = Files.walk(module)) {
+                    files.map(path -> typeName(module.relativize(path).toString()))
+                            .filter(name -> name != null && (name.startsWith("java.") || name.startsWith("javax.")))
+                            .forEach(names::add);
+                }
+            }
+        }
+        return names;
+    }
+
+    // クラスファイルのパスを正規名にする。無名クラスやローカルクラス、module-info は null
+    static String typeName(String classFile) {
+        if (!classFile.endsWith(".class")) {
+            return null;
+        }
+        String binaryName = classFile.substring(0, classFile.length() - ".class".length()).replace('/', '.');
+        if (binaryName.endsWith("module-info") || binaryName.endsWith("package-info")) {
+            return null;
+        }
+        String[] nested = binaryName.split("\\$", -1);
+        for (int i = 1; i < nested.length; i++) {
+            if (nested[i].isEmpty() || Character.isDigit(nested[i].charAt(0))) {
+                return null;
+            }
+        }
+        return String.join(".", nested);
+    }
+
+    private static List<Path> listJars(List<Path> jarDirs) throws IOException {
+        List<Path> jars = new ArrayList<>();
+        for (Path dir : jarDirs) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.filter(path -> path.getFileName().toString().endsWith(".jar") && Files.isRegularFile(path))
+                        .map(path -> path.toAbsolutePath().normalize())
+                        .sorted()
+                        .forEach(jars::add);
+            }
+        }
+        return jars;
+    }
+
+    // JDK のバージョンと jar の一覧が同じなら索引も同じ
+    private static byte[] fingerprint(List<Path> jars) throws IOException {
+        StringBuilder description = new StringBuilder(System.getProperty("java.runtime.version", ""));
+        for (Path jar : jars) {
+            description.append('\n').append(jar)
+                    .append('\t').append(Files.size(jar))
+                    .append('\t').append(Files.getLastModifiedTime(jar).toMillis());
+        }
+        return EdgeCache.sha256(description.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // 索引の中の順序 (UTF-8 のバイト列を符号なしで比べる)
+    private static int compareUtf8(String a, String b) {
+        return Arrays.compareUnsigned(a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,178 @@
+package calculator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of warm worker JVMs running {@link ProjectWorker}.
+ * A worker that exits for recycling or crashes is replaced by a fresh one on its next use;
+ * a crash only fails the project that was being processed.
+ */
+public class WorkerPool implements Closeable {
+
+    private final List<String> command;
+    private final BlockingQueue<Worker> idle;
+    private final long timeoutSeconds;
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "worker-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ProgressTracker tracker;
+    private final ResultStore store;
+    private final Logger logger;
+
+    public WorkerPool(List<String> command, int size, long timeoutSeconds, ProgressTracker tracker, ResultStore store,
+                      Logger logger) {
+        this.command = command;
+        this.idle = new ArrayBlockingQueue<>(size);
+        this.timeoutSeconds = timeoutSeconds;
+        this.tracker = tracker;
+        this.store = store;
+        this.logger = logger;
+        for (int i = 0; i < size; i++) {
+            idle.add(new Worker(i));
+        }
+    }
+
+    public void preprocess(ProjectJob job, Path outPath) throws InterruptedException {
+        Worker worker = idle.take();
+        try {
+            worker.preprocess(job, outPath);
+        } finally {
+            idle.add(worker);
+        }
+    }
+
+    @Override
+    public void close() {
+        List<Worker> workers = new ArrayList<>();
+        idle.drainTo(workers);
+        for (Worker worker : workers) {
+            worker.stop();
+        }
+        watchdog.shutdownNow();
+    }
+
+    private class Worker {
+        private final int id;
+        private Process process;
+        private BufferedReader stdout;
+        private Writer stdin;
+        private volatile String prefix;
+
+        private Worker(int id) {
+            this.id = id;
+            this.prefix = "[worker-" + id + "] ";
+        }
+
+        private void preprocess(ProjectJob job, Path outPath) {
+            File projectDir = job.projectDir;
+            AtomicBoolean killed = new AtomicBoolean();
+            ScheduledFuture<?> kill = null;
+            try {
+                if (process == null || !process.isAlive()) {
+                    start();
+                }
+                prefix = "[" + projectDir.getName() + "] ";
+                stdin.write(WorkerProtocol.request(projectDir, outPath) + "\n");
+                stdin.flush();
+                if (timeoutSeconds > 0) {
+                    Process target = process;
+                    kill = watchdog.schedule(() -> {
+                        killed.set(true);
+                        target.destroyForcibly();
+                    }, timeoutSeconds, TimeUnit.SECONDS);
+                }
+
+                String line;
+                while ((line = stdout.readLine()) != null) {
+                    if (!WorkerProtocol.isMessage(line)) {
+                        logger.info(prefix + line);
+                        continue;
+                    }
+                    JsonNode message = WorkerProtocol.parseMessage(line);
+                    if (WorkerProtocol.TYPE_PROGRESS.equals(message.get("type").asText())) {
+                        tracker.update(job, WorkerProtocol.parseProgress(message));
+                        continue;
+                    }
+                    if (WorkerProtocol.TYPE_RESULT.equals(message.get("type").asText())) {
+                        store.append(job.dataType, message.get("record"));
+                        continue;
+                    }
+                    if (WorkerProtocol.TYPE_DONE.equals(message.get("type").asText())) {
+                        if (message.get("recycle").asBoolean()) {
+                            logger.info("[worker-" + id + "] recycling after " + projectDir.getName()
+                                    + " (heap used: " + (message.get("heap_used").asLong() >> 20) + "MB)");
+                            stop();
+                        }
+                        return;
+                    }
+                }
+                // 応答の前に標準出力が閉じられた = ワーカーが異常終了したか、時間切れで強制終了した
+                if (killed.get()) {
+                    logger.severe(prefix + "killed after " + timeoutSeconds + " seconds");
+                    store.append(job.dataType, ProjectMetrics.timeoutRecord(projectDir.getName(), job.fileCount));
+                } else {
+                    logger.severe(prefix + "worker exited while processing " + projectDir);
+                }
+                stop();
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "error processing " + projectDir, e);
+                stop();
+            } finally {
+                if (kill != null) {
+                    kill.cancel(false);
+                }
+                prefix = "[worker-" + id + "] ";
+            }
+        }
+
+        private void start() throws IOException {
+            process = new ProcessBuilder(command).start();
+            stdout = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
+            BufferedReader stderr = new BufferedReader(new InputStreamReader(process.getErrorStream()));
+            Thread errorPump = new Thread(() -> {
+                try {
+                    String line;
+                    while ((line = stderr.readLine()) != null) {
+                        logger.severe(prefix + line);
+                    }
+                } catch (IOException e) {
+                    // プロセス終了時に閉じられる
+                }
+            }, "worker-" + id + "-stderr");
+            errorPump.setDaemon(true);
+            errorPump.start();
+        }
+
+        private void stop() {
+            if (process == null) {
+                return;
+            }
+            try {
+                stdin.close();
+            } catch (IOException e) {
+                // 既に終了している
+            }
+            try {
+                if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+            process = null;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package calculator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+/**
+ * Line protocol between {@link DatasetPreprocessor} and its child JVMs.
+ * <p>
+ * A pool worker reads one JSON request per line from its stdin.
+ * Children started with {@code --progress_events} or {@code --result_events} (project processes and pool workers)
+ * write messages to stdout as lines starting with {@link #PREFIX} followed by JSON;
+ * every other stdout line is ordinary log output of the project being processed.
+ */
+public final class WorkerProtocol {
+    public static final String PREFIX = "##q-calculator ";
+
+    public static final String TYPE_DONE = "done";
+    public static final String TYPE_PROGRESS = "progress";
+    public static final String TYPE_RESULT = "result";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private WorkerProtocol() {
+    }
+
+    public static String request(File projectDir, Path outPath) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("project", projectDir.toPath().toAbsolutePath().toString());
+        node.put("output_dir", outPath.toAbsolutePath().toString());
+        return write(node);
+    }
+
+    public static String done(String project, long heapUsed, boolean recycle) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("type", TYPE_DONE);
+        node.put("project", project);
+        node.put("heap_used", heapUsed);
+        node.put("recycle", recycle);
+        return PREFIX + write(node);
+    }
+
+    public static String progress(String project, ProjectProgress progress) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("type", TYPE_PROGRESS);
+        node.put("project", project);
+        node.put("files_discovered", progress.getFilesDiscovered());
+        node.put("files_parsed", progress.getFilesParsed());
+        node.put("files_resolved", progress.getFilesResolved());
+        node.put("edges", progress.getEdges());
+        return PREFIX + write(node);
+    }
+
+    public static String result(JsonNode record) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("type", TYPE_RESULT);
+        node.set("record", record);
+        return PREFIX + write(node);
+    }
+
+    public static ProjectProgress parseProgress(JsonNode message) {
+        return new ProjectProgress(
+                message.get("files_discovered").asLong(),
+                message.get("files_parsed").asLong(),
+                message.get("files_resolved").asLong(),
+                message.get("edges").asLong()
+        );
+    }
+
+    public static boolean isMessage(String line) {
+        return line.startsWith(PREFIX);
+    }
+
+    public static JsonNode parseMessage(String line) throws IOException {
+        return mapper.readTree(line.substring(PREFIX.length()));
+    }
+
+    public static JsonNode parseRequest(String line) throws IOException {
+        return mapper.readTree(line);
+    }
+
+    private static String write(ObjectNode node) {
+        try {
+            return mapper.writeValueAsString(node);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package calculator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Pins the source-root detection of {@link SourceDiscovery} on a Maven-like tree that mixes packages named like
+ * build output directories with real build output.
+ */
+public class SourceDiscoveryTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path project;
+
+    private void write(String path, String content) throws IOException {
+        Path file = project.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void createProject() throws IOException {
+        project = folder.getRoot().toPath();
+        write("pom.xml", "<project/>");
+        write("src/main/java/org/example/App.java", "package org.example;\nclass App {}\n");
+        // ビルド出力と同じ名前のパッケージ
+        write("src/main/java/org/example/build/Builder.java", "package org.example.build;\nclass Builder {}\n");
+        write("src/main/java/org/example/target/Target.java", "package org.example.target;\nclass Target {}\n");
+        // package 宣言の前に引数付きのアノテーションがある
+        write("src/main/java/org/example/build/package-info.java", "/* license */\n"
+                + "@Deprecated\n"
+                + "@javax.annotation.Generated(value = {\"a)(\", \"b\"}, comments = \")\")\n"
+                + "@ Foo . Bar ( c = ')' )\n"
+                + "package org.example.build;\n");
+        // 本物のビルド出力
+        write("target/generated-sources/annotations/org/example/Generated.java",
+                "package org.example;\nclass Generated {}\n");
+        write("module/build.gradle", "");
+        write("module/build/tmp/Stub.java", "package tmp;\nclass Stub {}\n");
+    }
+
+    private List<String> relative(List<Path> paths) {
+        return paths.stream()
+                .map(path -> project.relativize(path).toString().replace('\\', '/'))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void keepsPackagesNamedLikeBuildOutput() throws IOException {
+        createProject();
+        List<String> expected = List.of(
+                "src/main/java/org/example/App.java",
+                "src/main/java/org/example/build/Builder.java",
+                "src/main/java/org/example/build/package-info.java",
+                "src/main/java/org/example/target/Target.java");
+        for (int parallelism : new int[]{1, 4}) {
+            SourceDiscovery discovery = new SourceDiscovery(project, parallelism);
+            SourceDiscovery.Sources sources = discovery.discover();
+            assertEquals(expected, relative(sources.getFiles()));
+            assertEquals(expected, relative(discovery.listFiles()));
+            assertEquals(List.of("src/main/java"), relative(sources.getSourceRoots()));
+        }
+    }
+
+    @Test
+    public void skipsAnnotationsBeforePackage() throws IOException {
+        createProject();
+        Path packageInfo = project.resolve("src/main/java/org/example/build/package-info.java");
+        assertEquals("org.example.build", SourceDiscovery.declaredPackage(packageInfo));
+    }
+
+    @Test
+    public void annotationTypeIsInDefaultPackage() throws IOException {
+        project = folder.getRoot().toPath();
+        write("Marker.java", "@interface Marker {}\n");
+        assertEquals("", SourceDiscovery.declaredPackage(project.resolve("Marker.java")));
+    }
+}